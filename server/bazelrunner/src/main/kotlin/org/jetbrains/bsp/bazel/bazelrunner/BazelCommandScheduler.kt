@@ -0,0 +1,205 @@
+package org.jetbrains.bsp.bazel.bazelrunner
+
+import org.apache.logging.log4j.LogManager
+import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import org.jetbrains.bsp.bazel.server.benchmark.meter
+import org.jetbrains.bsp.bazel.server.benchmark.openTelemetryInitialized
+import java.util.PriorityQueue
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/** Order in which queued Bazel commands are run - interactive lookups go before everything else. */
+enum class BazelCommandPriority {
+  INTERACTIVE,
+  NORMAL,
+  BACKGROUND,
+}
+
+/**
+ * The Bazel server runs one command at a time, and concurrent clients wait for its lock
+ * ("Another command is running") in no particular order. Instead, the commands are queued here
+ * and started one by one in the order of their priority (and submission, within the same priority).
+ *
+ * Identical read-only commands requested while one of them is already queued or running are not run again,
+ * they share the result of the first one. A shared command which is still queued is moved up to the highest priority
+ * of the requests waiting for it.
+ */
+internal class BazelCommandScheduler {
+  private val lock = ReentrantLock()
+  private val turnReleased = lock.newCondition()
+  private val queue = PriorityQueue(compareBy<Ticket> { it.priority }.thenBy { it.sequenceNumber })
+  private var nextSequenceNumber = 0L
+  private var isRunning = false
+
+  private val inFlightCommands = ConcurrentHashMap<Any, InFlightCommand>()
+
+  // the longest wait of each priority, exported as a gauge (the file exporter supports only long gauges)
+  private val maxQueueWaitsMs = BazelCommandPriority.entries.associateWith { AtomicLong() }
+  private val queueWaitGauges by lazy {
+    BazelCommandPriority.entries.associateWith {
+      meter
+        .gaugeBuilder("$MAX_QUEUE_WAIT_METRIC.${it.name.lowercase()}")
+        .ofLongs()
+        .setUnit("ms")
+        .build()
+    }
+  }
+
+  private class Ticket(val currentPriority: () -> BazelCommandPriority, val sequenceNumber: Long) {
+    var priority = currentPriority()
+  }
+
+  /**
+   * Waits for the turn of the command and starts it with [startProcess].
+   * The next command is started once the returned process exits.
+   */
+  fun start(
+    priority: BazelCommandPriority,
+    cancelChecker: CancelChecker,
+    startProcess: () -> Process,
+  ): Process {
+    val queuedAt = System.nanoTime()
+    // a shared command is started by the first request, but it is queued at the priority of all the requests waiting for it
+    awaitTurn(cancelChecker) { (cancelChecker as? InFlightCommand)?.priority ?: priority }
+    recordQueueWait(priority, System.nanoTime() - queuedAt)
+
+    val process =
+      try {
+        startProcess()
+      } catch (e: Throwable) {
+        releaseTurn()
+        throw e
+      }
+    process.onExit().whenComplete { _, _ -> releaseTurn() }
+    return process
+  }
+
+  private fun awaitTurn(cancelChecker: CancelChecker, currentPriority: () -> BazelCommandPriority) {
+    lock.withLock {
+      val ticket = Ticket(currentPriority, nextSequenceNumber++)
+      queue.add(ticket)
+      try {
+        while (isRunning || queue.peek() !== ticket) {
+          cancelChecker.checkCanceled()
+          turnReleased.await(CANCELLATION_POLLING_INTERVAL_MS, TimeUnit.MILLISECONDS)
+        }
+      } catch (e: Throwable) {
+        queue.remove(ticket)
+        turnReleased.signalAll()
+        throw e
+      }
+      queue.remove()
+      isRunning = true
+    }
+  }
+
+  private fun raisePriorities() {
+    lock.withLock {
+      // the queue is ordered on insertion, so the raised tickets are re-added (keeping their place among the same priority)
+      val raisedTickets = queue.filter { it.currentPriority() < it.priority }
+      for (ticket in raisedTickets) {
+        queue.remove(ticket)
+        ticket.priority = ticket.currentPriority()
+        queue.add(ticket)
+      }
+      turnReleased.signalAll()
+    }
+  }
+
+  private fun releaseTurn() {
+    lock.withLock {
+      isRunning = false
+      turnReleased.signalAll()
+    }
+  }
+
+  /**
+   * Runs [execute] unless a command with the same [key] is already in flight, in which case its result is awaited.
+   * The shared command is cancelled only once all the requests waiting for it are cancelled,
+   * and it is queued at the highest [priority] of them.
+   */
+  fun coalesce(
+    key: Any,
+    priority: BazelCommandPriority,
+    cancelChecker: CancelChecker,
+    execute: (CancelChecker) -> BazelProcessResult,
+  ): BazelProcessResult {
+    val ownCommand = InFlightCommand(priority)
+    val command = inFlightCommands.putIfAbsent(key, ownCommand) ?: ownCommand
+    if (command.addWaiter(cancelChecker, priority)) {
+      raisePriorities()
+    }
+    if (command !== ownCommand) {
+      LOGGER.info("Waiting for the result of an identical command in flight")
+      return awaitResult(command.result, cancelChecker)
+    }
+
+    try {
+      return execute(ownCommand).also { ownCommand.result.complete(it) }
+    } catch (e: Throwable) {
+      ownCommand.result.completeExceptionally(e)
+      throw e
+    } finally {
+      inFlightCommands.remove(key, ownCommand)
+    }
+  }
+
+  private fun awaitResult(result: CompletableFuture<BazelProcessResult>, cancelChecker: CancelChecker): BazelProcessResult {
+    while (true) {
+      cancelChecker.checkCanceled()
+      try {
+        return result.get(CANCELLATION_POLLING_INTERVAL_MS, TimeUnit.MILLISECONDS)
+      } catch (_: TimeoutException) {
+        // check the cancellation again
+      } catch (e: ExecutionException) {
+        throw e.cause ?: e
+      }
+    }
+  }
+
+  private class InFlightCommand(
+    @Volatile var priority: BazelCommandPriority,
+  ) : CancelChecker {
+    val result = CompletableFuture<BazelProcessResult>()
+    private val waiters = mutableListOf<CancelChecker>()
+
+    /** Returns true if the waiter raised the priority of the command. */
+    fun addWaiter(cancelChecker: CancelChecker, waiterPriority: BazelCommandPriority): Boolean =
+      synchronized(waiters) {
+        waiters.add(cancelChecker)
+        (waiterPriority < priority).also { if (it) priority = waiterPriority }
+      }
+
+    override fun isCanceled(): Boolean = synchronized(waiters) { waiters.all { it.isCanceled } }
+
+    override fun checkCanceled() {
+      if (isCanceled()) throw CancellationException()
+    }
+  }
+
+  private fun recordQueueWait(priority: BazelCommandPriority, waitNanos: Long) {
+    val waitMs = waitNanos / 1_000_000
+    if (waitMs >= LOGGED_QUEUE_WAIT_MS) {
+      LOGGER.info("{} Bazel command waited {} ms for the previous commands to finish", priority, waitMs)
+    }
+    val maxWaitMs = maxQueueWaitsMs.getValue(priority).accumulateAndGet(waitMs, ::maxOf)
+    if (openTelemetryInitialized) {
+      queueWaitGauges.getValue(priority).set(maxWaitMs)
+    }
+  }
+
+  companion object {
+    private val LOGGER = LogManager.getLogger(BazelCommandScheduler::class.java)
+
+    private const val CANCELLATION_POLLING_INTERVAL_MS = 100L
+    private const val LOGGED_QUEUE_WAIT_MS = 100L
+    private const val MAX_QUEUE_WAIT_METRIC = "bazel.command.max.queue.wait.ms"
+  }
+}
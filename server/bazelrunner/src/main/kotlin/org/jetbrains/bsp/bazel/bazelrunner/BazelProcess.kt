@@ -11,12 +11,27 @@ import org.jetbrains.bsp.bazel.logger.BspClientLogger
 import java.time.Duration
 import java.util.concurrent.CompletableFuture
 
+/**
+ * Bazel command which is started by [waitAndGetResult] once it is its turn in the [scheduler]
+ * (or right away, if the command is not scheduled).
+ */
 class BazelProcess internal constructor(
-  private val process: Process,
+  private val startProcess: () -> Process,
   private val logger: BspClientLogger? = null,
   private val serverPidFuture: CompletableFuture<Long>?,
+  private val scheduler: BazelCommandScheduler?,
+  private val priority: BazelCommandPriority,
+  private val coalescingKey: Any?,
 ) {
-  fun waitAndGetResult(cancelChecker: CancelChecker, ensureAllOutputRead: Boolean = false): BazelProcessResult {
+  fun waitAndGetResult(cancelChecker: CancelChecker, ensureAllOutputRead: Boolean = false): BazelProcessResult =
+    if (scheduler != null && coalescingKey != null) {
+      scheduler.coalesce(listOf(coalescingKey, ensureAllOutputRead), priority, cancelChecker) { execute(it, ensureAllOutputRead) }
+    } else {
+      execute(cancelChecker, ensureAllOutputRead)
+    }
+
+  private fun execute(cancelChecker: CancelChecker, ensureAllOutputRead: Boolean): BazelProcessResult {
+    val process = scheduler?.start(priority, cancelChecker, startProcess) ?: startProcess()
     val stopwatch = Stopwatch.start()
     val outputProcessor: OutputProcessor =
       if (logger != null) {
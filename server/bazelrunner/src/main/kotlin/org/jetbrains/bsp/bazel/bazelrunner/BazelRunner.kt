@@ -20,6 +20,8 @@ class BazelRunner(
     private val LOGGER = LogManager.getLogger(BazelRunner::class.java)
   }
 
+  private val scheduler = BazelCommandScheduler()
+
   inner class CommandBuilder {
     private val workspaceContext = workspaceContextProvider.currentWorkspaceContext()
     private val bazelBinary = workspaceContext.bazelBinary.value.pathString
@@ -89,11 +91,16 @@ class BazelRunner(
     return command
   }
 
+  /**
+   * The command is started by [BazelProcess.waitAndGetResult], once the commands queued before it
+   * (or with a higher [priority]) have finished.
+   */
   fun runBazelCommand(
     command: BazelCommand,
     originId: String? = null,
     logProcessOutput: Boolean = true,
     serverPidFuture: CompletableFuture<Long>?,
+    priority: BazelCommandPriority = BazelCommandPriority.NORMAL,
   ): BazelProcess {
     val processArgs = command.makeCommandLine()
     val processBuilder = ProcessBuilder(processArgs)
@@ -103,21 +110,46 @@ class BazelRunner(
     if (command is BazelCommand.Run) {
       command.workingDirectory?.let { processBuilder.directory(it.toFile()) }
       processBuilder.environment() += command.environment
-      logInvocation(processArgs, command.environment, command.workingDirectory, originId)
-    } else {
-      logInvocation(processArgs, null, null, originId)
+    }
+    val startProcess = {
+      if (command is BazelCommand.Run) {
+        logInvocation(processArgs, command.environment, command.workingDirectory, originId)
+      } else {
+        logInvocation(processArgs, null, null, originId)
+      }
+      processBuilder.start()
     }
 
-    val process = processBuilder.start()
     val outputLogger = bspClientLogger.takeIf { logProcessOutput }?.copy(originId = originId)
 
     return BazelProcess(
-      process,
+      startProcess,
       outputLogger,
       serverPidFuture,
+      // the Bazel server lock is released before the target of `bazel run` is started, which may run indefinitely
+      scheduler.takeUnless { command is BazelCommand.Run },
+      priority,
+      coalescingKey(command, processArgs, processBuilder).takeIf { outputLogger == null && serverPidFuture == null },
     )
   }
 
+  /** Only read-only commands are coalesced. */
+  private fun coalescingKey(
+    command: BazelCommand,
+    processArgs: List<String>,
+    processBuilder: ProcessBuilder,
+  ): Any? =
+    when (command) {
+      is BazelCommand.Query,
+      is BazelCommand.CQuery,
+      is BazelCommand.Info,
+      is BazelCommand.ModGraph,
+      is BazelCommand.ModPath,
+      is BazelCommand.ModShowRepo,
+      -> listOf(processArgs, processBuilder.directory())
+      else -> null
+    }
+
   private fun envToString(environment: Map<String, String>): String = environment.entries.joinToString(" ") { "${it.key}=${it.value}" }
 
   private fun logInvocation(
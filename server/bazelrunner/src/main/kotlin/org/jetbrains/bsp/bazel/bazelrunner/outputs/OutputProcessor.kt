@@ -2,21 +2,24 @@ package org.jetbrains.bsp.bazel.bazelrunner.outputs
 
 import com.google.common.base.Charsets
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import org.jetbrains.bsp.bazel.bazelrunner.utils.FutureCancelChecker
 import org.jetbrains.bsp.bazel.logger.BspClientLogger
 import java.io.BufferedReader
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 abstract class OutputProcessor(private val process: Process, vararg loggers: OutputHandler) {
   val stdoutCollector = OutputCollector()
   val stderrCollector = OutputCollector()
 
-  private val executorService = Executors.newCachedThreadPool()
   protected val runningProcessors = mutableListOf<Future<*>>()
 
   init {
@@ -24,9 +27,7 @@ abstract class OutputProcessor(private val process: Process, vararg loggers: Out
     start(process.errorStream, stderrCollector, *loggers)
   }
 
-  protected open fun shutdown() {
-    executorService.shutdown()
-  }
+  protected open fun shutdown() {}
 
   protected abstract fun isRunning(): Boolean
 
@@ -54,29 +55,69 @@ abstract class OutputProcessor(private val process: Process, vararg loggers: Out
         }
       }
 
-    executorService.submit(runnable).also { runningProcessors.add(it) }
+    outputReaders.submit(runnable).also { runningProcessors.add(it) }
   }
 
+  /**
+   * Waits for the process to exit, which is observed as soon as it happens - short commands return right away.
+   * If the request gets cancelled in the meantime, the process and the Bazel server command are interrupted.
+   */
   fun waitForExit(
     cancelChecker: CancelChecker,
     serverPidFuture: CompletableFuture<Long>?,
     logger: BspClientLogger?,
   ): Int {
-    var isFinished = false
-    while (!isFinished) {
-      isFinished = process.waitFor(500, TimeUnit.MILLISECONDS)
-      if (cancelChecker.isCanceled) {
-        process.destroy()
-        serverPidFuture
-          ?.get()
-          ?.let { Runtime.getRuntime().exec("kill -SIGINT $it").waitFor() }
-          ?: logger?.error("Could not cancel the task. Bazel server needs to be interrupted manually.")
-      }
+    val exited = process.onExit()
+    val cancelled = CompletableFuture<Unit>()
+    val cancellationPolling = onCancel(cancelChecker) { cancelled.complete(Unit) }
+    try {
+      CompletableFuture.anyOf(exited, cancelled).get()
+    } finally {
+      cancellationPolling?.cancel(false)
+    }
+    if (!exited.isDone) {
+      process.destroy()
+      serverPidFuture
+        ?.get()
+        ?.let { Runtime.getRuntime().exec("kill -SIGINT $it").waitFor() }
+        ?: logger?.error("Could not cancel the task. Bazel server needs to be interrupted manually.")
     }
-    // Return values of waitFor() and waitFor(long, TimeUnit) differ
-    // so we can't just return value from waitFor(long, TimeUnit) here
     val exitCode = process.waitFor()
     shutdown()
     return exitCode
   }
+
+  /**
+   * A [FutureCancelChecker] notifies about the cancellation itself,
+   * other checkers are polled until the returned future is cancelled.
+   */
+  private fun onCancel(cancelChecker: CancelChecker, action: () -> Unit): Future<*>? =
+    if (cancelChecker is FutureCancelChecker) {
+      cancelChecker.onCancel(action)
+      null
+    } else {
+      cancellationPoller.scheduleWithFixedDelay(
+        { if (cancelChecker.isCanceled) action() },
+        0,
+        CANCELLATION_POLLING_INTERVAL_MS,
+        TimeUnit.MILLISECONDS,
+      )
+    }
+
+  companion object {
+    private const val CANCELLATION_POLLING_INTERVAL_MS = 100L
+
+    private val outputReaderCount = AtomicInteger()
+
+    /** Shared by all processes, so that consecutive commands reuse the threads reading their output. */
+    private val outputReaders: ExecutorService =
+      Executors.newCachedThreadPool { runnable ->
+        Thread(runnable, "bazel-output-reader-${outputReaderCount.incrementAndGet()}").apply { isDaemon = true }
+      }
+
+    private val cancellationPoller: ScheduledExecutorService =
+      Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "bazel-cancellation-poller").apply { isDaemon = true }
+      }
+  }
 }
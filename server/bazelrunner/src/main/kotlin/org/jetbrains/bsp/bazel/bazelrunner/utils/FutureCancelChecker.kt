@@ -0,0 +1,32 @@
+package org.jetbrains.bsp.bazel.bazelrunner.utils
+
+import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+
+/**
+ * [CancelChecker] of a request computed by [future], which (unlike the one created by
+ * [org.eclipse.lsp4j.jsonrpc.CompletableFutures.computeAsync]) can also notify about the cancellation as it happens.
+ */
+class FutureCancelChecker(private val future: CompletableFuture<*>) : CancelChecker {
+  override fun checkCanceled() {
+    if (future.isCancelled) throw CancellationException()
+  }
+
+  override fun isCanceled(): Boolean = future.isCancelled
+
+  /** Calls [action] once the request is cancelled, or right away if it already has been. */
+  fun onCancel(action: () -> Unit) {
+    future.whenComplete { _, _ -> if (future.isCancelled) action() }
+  }
+
+  companion object {
+    /** Same as [org.eclipse.lsp4j.jsonrpc.CompletableFutures.computeAsync], but with a [FutureCancelChecker]. */
+    fun <R> computeAsync(code: (CancelChecker) -> R): CompletableFuture<R> {
+      val start = CompletableFuture<CancelChecker>()
+      val result = start.thenApplyAsync(code)
+      start.complete(FutureCancelChecker(result))
+      return result
+    }
+  }
+}
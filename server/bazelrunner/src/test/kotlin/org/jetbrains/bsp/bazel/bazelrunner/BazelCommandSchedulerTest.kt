@@ -0,0 +1,210 @@
+package org.jetbrains.bsp.bazel.bazelrunner
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.shouldBe
+import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import org.jetbrains.bsp.bazel.bazelrunner.outputs.OutputCollector
+import org.junit.jupiter.api.Test
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.Collections
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+import kotlin.reflect.KClass
+
+class BazelCommandSchedulerTest {
+  private val scheduler = BazelCommandScheduler()
+  private val startedCommands = Collections.synchronizedList(mutableListOf<String>())
+  private val notCancelled = CancelChecker { }
+
+  @Test
+  fun `should start queued commands by priority and then in order of submission`() {
+    // given
+    val running = FakeProcess()
+    scheduler.start(BazelCommandPriority.NORMAL, notCancelled) { running }
+
+    // when
+    val commands =
+      listOf(
+        "background" to BazelCommandPriority.BACKGROUND,
+        "normal 1" to BazelCommandPriority.NORMAL,
+        "normal 2" to BazelCommandPriority.NORMAL,
+        "interactive" to BazelCommandPriority.INTERACTIVE,
+      ).map { (name, priority) -> startInBackground(name, priority, notCancelled).also(::awaitQueued) }
+    running.exit()
+    commands.forEach { it.join() }
+
+    // then
+    startedCommands shouldContainExactly listOf("interactive", "normal 1", "normal 2", "background")
+  }
+
+  @Test
+  fun `should remove cancelled command from queue and start the next one`() {
+    // given
+    val running = FakeProcess()
+    scheduler.start(BazelCommandPriority.NORMAL, notCancelled) { running }
+    val cancelled = AtomicBoolean(false)
+    val cancelChecker = CancelChecker { if (cancelled.get()) throw CancellationException() }
+    val cancelledCommand = startInBackground("cancelled", BazelCommandPriority.INTERACTIVE, cancelChecker).also(::awaitQueued)
+    val nextCommand = startInBackground("next", BazelCommandPriority.BACKGROUND, notCancelled).also(::awaitQueued)
+
+    // when
+    cancelled.set(true)
+    cancelledCommand.join()
+    running.exit()
+    nextCommand.join()
+
+    // then
+    cancelledCommand.exception shouldBe CancellationException::class
+    startedCommands shouldContainExactly listOf("next")
+  }
+
+  @Test
+  fun `should release turn if command fails to start`() {
+    // given
+    shouldThrow<IllegalStateException> {
+      scheduler.start(BazelCommandPriority.NORMAL, notCancelled) { error("cannot start bazel") }
+    }
+
+    // when
+    val nextCommand = startInBackground("next", BazelCommandPriority.NORMAL, notCancelled)
+    nextCommand.join()
+
+    // then
+    startedCommands shouldContainExactly listOf("next")
+  }
+
+  @Test
+  fun `should cancel coalesced command only after all its waiters are cancelled`() {
+    // given
+    val sharedCommand = CompletableFuture<CancelChecker>()
+    val firstCancelled = AtomicBoolean(false)
+    val secondCancelled = AtomicBoolean(false)
+    val first =
+      coalesceInBackground(firstCancelled) { shared ->
+        sharedCommand.complete(shared)
+        while (!shared.isCanceled) {
+          Thread.sleep(10)
+        }
+        throw CancellationException()
+      }
+    val shared = sharedCommand.get()
+    val second = coalesceInBackground(secondCancelled) { error("identical command should not run again") }.also(::awaitQueued)
+
+    // when
+    firstCancelled.set(true)
+    val sharedCancelledByFirst = shared.isCanceled
+    secondCancelled.set(true)
+    first.join()
+    second.join()
+
+    // then
+    sharedCancelledByFirst shouldBe false
+    shared.isCanceled shouldBe true
+    first.exception shouldBe CancellationException::class
+    second.exception shouldBe CancellationException::class
+  }
+
+  @Test
+  fun `should move queued coalesced command up to priority of its waiters`() {
+    // given
+    val running = FakeProcess()
+    scheduler.start(BazelCommandPriority.NORMAL, notCancelled) { running }
+    val coalesced =
+      coalesceInBackground(AtomicBoolean(false), BazelCommandPriority.BACKGROUND) { shared ->
+        scheduler.start(BazelCommandPriority.BACKGROUND, shared) { startProcess("coalesced") }
+        BazelProcessResult(OutputCollector(), OutputCollector(), 0)
+      }.also(::awaitQueued)
+    val normal = startInBackground("normal", BazelCommandPriority.NORMAL, notCancelled).also(::awaitQueued)
+
+    // when
+    val interactive =
+      coalesceInBackground(AtomicBoolean(false), BazelCommandPriority.INTERACTIVE) {
+        error("identical command should not run again")
+      }.also(::awaitQueued)
+    running.exit()
+    listOf(coalesced, normal, interactive).forEach { it.join() }
+
+    // then
+    startedCommands shouldContainExactly listOf("coalesced", "normal")
+    interactive.exception shouldBe null
+  }
+
+  private fun startInBackground(
+    name: String,
+    priority: BazelCommandPriority,
+    cancelChecker: CancelChecker,
+  ): BackgroundCall = BackgroundCall { scheduler.start(priority, cancelChecker) { startProcess(name) } }
+
+  private fun coalesceInBackground(
+    cancelled: AtomicBoolean,
+    priority: BazelCommandPriority = BazelCommandPriority.NORMAL,
+    execute: (CancelChecker) -> BazelProcessResult,
+  ): BackgroundCall =
+    BackgroundCall {
+      scheduler.coalesce("query", priority, { if (cancelled.get()) throw CancellationException() }, execute)
+    }
+
+  // the started process exits right away, so that the next command can start
+  private fun startProcess(name: String): Process {
+    startedCommands.add(name)
+    return FakeProcess().apply { exit() }
+  }
+
+  // a queued command waits for its turn with a timeout, so that it notices cancellation
+  private fun awaitQueued(call: BackgroundCall) {
+    while (call.thread.state != Thread.State.TIMED_WAITING) {
+      Thread.onSpinWait()
+    }
+  }
+
+  private class BackgroundCall(action: () -> Unit) {
+    @Volatile
+    var exception: KClass<out Throwable>? = null
+
+    val thread =
+      thread {
+        try {
+          action()
+        } catch (e: Throwable) {
+          exception = e::class
+        }
+      }
+
+    fun join() {
+      thread.join(TIMEOUT_MS)
+      thread.isAlive shouldBe false
+    }
+  }
+
+  private class FakeProcess : Process() {
+    private val exited = CompletableFuture<Process>()
+
+    fun exit() {
+      exited.complete(this)
+    }
+
+    override fun onExit(): CompletableFuture<Process> = exited
+
+    override fun getOutputStream(): OutputStream = OutputStream.nullOutputStream()
+
+    override fun getInputStream(): InputStream = InputStream.nullInputStream()
+
+    override fun getErrorStream(): InputStream = InputStream.nullInputStream()
+
+    override fun waitFor(): Int = exited.thenApply { 0 }.get()
+
+    override fun exitValue(): Int = if (exited.isDone) 0 else throw IllegalThreadStateException()
+
+    override fun destroy() {
+      exit()
+    }
+  }
+
+  companion object {
+    private const val TIMEOUT_MS = 10_000L
+  }
+}
@@ -3,13 +3,21 @@ package org.jetbrains.bsp.bazel.workspacecontext
 import org.jetbrains.bsp.bazel.projectview.generator.DefaultProjectViewGenerator
 import org.jetbrains.bsp.bazel.projectview.model.ProjectView
 import org.jetbrains.bsp.bazel.projectview.parser.DefaultProjectViewParser
+import java.io.IOException
+import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
 import kotlin.io.path.notExists
 
 interface WorkspaceContextProvider {
   fun currentWorkspaceContext(): WorkspaceContext
 }
 
+/**
+ * Parsing the project view (together with its imports) is done only if any of the parsed files
+ * has changed on disk since the last call, otherwise the previous [WorkspaceContext] is returned.
+ */
 class DefaultWorkspaceContextProvider(
   private val workspaceRoot: Path,
   private val projectViewPath: Path,
@@ -17,21 +25,67 @@ class DefaultWorkspaceContextProvider(
 ) : WorkspaceContextProvider {
   private val workspaceContextConstructor = WorkspaceContextConstructor(workspaceRoot, dotBazelBspDirPath)
 
+  @Volatile
+  private var cached: CachedWorkspaceContext? = null
+
   override fun currentWorkspaceContext(): WorkspaceContext {
-    val projectView = ensureProjectViewExistsAndParse()
+    cached?.takeIf { it.isUpToDate() }?.let { return it.workspaceContext }
+
+    return synchronized(this) {
+      cached?.takeIf { it.isUpToDate() }?.workspaceContext ?: parseWorkspaceContext()
+    }
+  }
 
-    return workspaceContextConstructor.construct(projectView)
+  private fun parseWorkspaceContext(): WorkspaceContext {
+    val parsedFiles = mutableListOf<Path>()
+    val projectView = ensureProjectViewExistsAndParse(parsedFiles)
+    // the files are stamped after parsing, so a change made in the meantime is picked up by the next call
+    val stamps = parsedFiles.distinct().map { FileStamp.of(it) }
+    val workspaceContext = workspaceContextConstructor.construct(projectView)
+    cached = CachedWorkspaceContext(workspaceContext, stamps)
+    return workspaceContext
   }
 
-  private fun ensureProjectViewExistsAndParse(): ProjectView {
+  private fun ensureProjectViewExistsAndParse(parsedFiles: MutableList<Path>): ProjectView {
     if (projectViewPath.notExists()) {
       generateEmptyProjectView()
     }
-    return DefaultProjectViewParser(workspaceRoot).parse(projectViewPath)
+    return TrackingProjectViewParser(workspaceRoot, parsedFiles).parse(projectViewPath)
   }
 
   private fun generateEmptyProjectView() {
     val emptyProjectView = ProjectView.Builder().build()
     DefaultProjectViewGenerator.generatePrettyStringAndSaveInFile(emptyProjectView, projectViewPath)
   }
+
+  /** Records the project view file and all its (transitive) imports. */
+  private class TrackingProjectViewParser(workspaceRoot: Path, private val parsedFiles: MutableList<Path>) :
+    DefaultProjectViewParser(workspaceRoot) {
+    override fun parse(projectViewFilePath: Path): ProjectView {
+      parsedFiles.add(projectViewFilePath)
+      return super.parse(projectViewFilePath)
+    }
+  }
+
+  private class CachedWorkspaceContext(val workspaceContext: WorkspaceContext, private val stamps: List<FileStamp>) {
+    fun isUpToDate(): Boolean = stamps.all { it.isUpToDate() }
+  }
+
+  private data class FileStamp(
+    val path: Path,
+    val lastModifiedTime: FileTime?,
+    val size: Long,
+  ) {
+    fun isUpToDate(): Boolean = this == of(path)
+
+    companion object {
+      fun of(path: Path): FileStamp =
+        try {
+          val attributes = Files.readAttributes(path, BasicFileAttributes::class.java)
+          FileStamp(path, attributes.lastModifiedTime(), attributes.size())
+        } catch (_: IOException) {
+          FileStamp(path, null, -1)
+        }
+    }
+  }
 }
@@ -58,4 +58,37 @@ class DefaultWorkspaceContextProviderTest {
     projectViewFile.exists() shouldBe true
     projectViewFile.readText().trim() shouldBe ""
   }
+
+  @Test
+  fun `should return the cached workspace context until an imported project view changes`() {
+    // given
+    val importedProjectViewFile = workspaceRoot.resolve("imported.bazelproject")
+    importedProjectViewFile.writeText(
+      """
+      |targets:
+      |  //a/...
+      """.trimMargin(),
+    )
+    projectViewFile.writeText("import imported.bazelproject")
+
+    val provider = DefaultWorkspaceContextProvider(workspaceRoot, projectViewFile, dotBazelBspDirPath)
+    val firstWorkspaceContext = provider.currentWorkspaceContext()
+
+    // when
+    val unchangedWorkspaceContext = provider.currentWorkspaceContext()
+    importedProjectViewFile.writeText(
+      """
+      |targets:
+      |  //b/...
+      |  //c/...
+      """.trimMargin(),
+    )
+    val changedWorkspaceContext = provider.currentWorkspaceContext()
+
+    // then
+    (unchangedWorkspaceContext === firstWorkspaceContext) shouldBe true
+    firstWorkspaceContext.targets shouldBe TargetsSpec(listOf(BuildTargetIdentifier("//a/...")), emptyList())
+    changedWorkspaceContext.targets shouldBe
+      TargetsSpec(listOf(BuildTargetIdentifier("//b/..."), BuildTargetIdentifier("//c/...")), emptyList())
+  }
 }
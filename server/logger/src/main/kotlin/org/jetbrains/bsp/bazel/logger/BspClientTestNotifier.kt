@@ -6,6 +6,7 @@ import ch.epfl.scala.bsp4j.StatusCode
 import ch.epfl.scala.bsp4j.TaskFinishDataKind
 import ch.epfl.scala.bsp4j.TaskFinishParams
 import ch.epfl.scala.bsp4j.TaskId
+import ch.epfl.scala.bsp4j.TaskProgressParams
 import ch.epfl.scala.bsp4j.TaskStartDataKind
 import ch.epfl.scala.bsp4j.TaskStartParams
 import ch.epfl.scala.bsp4j.TestFinish
@@ -81,15 +82,37 @@ class BspClientTestNotifier(private val bspClient: BuildClient, private val orig
     bspClient.onBuildTaskStart(taskStartParams)
   }
 
+  /**
+   * Notifies the client about the progress of the testing procedure, while it is still running
+   *
+   * @param taskId   TaskId of the testing target execution
+   * @param message  description of the progress, e.g. the status of a finished shard
+   * @param progress number of test actions finished so far
+   */
+  fun progressTestTarget(taskId: TaskId, message: String, progress: Long) {
+    val taskProgressParams = TaskProgressParams(taskId)
+    taskProgressParams.originId = originId
+    taskProgressParams.message = message
+    taskProgressParams.progress = progress
+    taskProgressParams.unit = "test actions"
+    bspClient.onBuildTaskProgress(taskProgressParams)
+  }
+
   /**
    * Notifies the client about ending the testing procedure
    *
    * @param testReport report concerning conducted tests
    * @param taskId     TaskId of the testing target execution
+   * @param message    summary of the testing procedure, e.g. its attempts and shards
    */
-  fun endTestTarget(testReport: TestReport, taskId: TaskId) {
+  fun endTestTarget(
+    testReport: TestReport,
+    taskId: TaskId,
+    message: String? = null,
+  ) {
     val taskFinishParams = TaskFinishParams(taskId, StatusCode.OK)
     taskFinishParams.originId = originId
+    taskFinishParams.message = message
     taskFinishParams.dataKind = TaskFinishDataKind.TEST_REPORT
     taskFinishParams.data = testReport
     bspClient.onBuildTaskFinish(taskFinishParams)
@@ -25,6 +25,8 @@ import org.jetbrains.bsp.bazel.server.sync.AdditionalAndroidBuildTargetsProvider
 import org.jetbrains.bsp.bazel.server.sync.BazelProjectMapper
 import org.jetbrains.bsp.bazel.server.sync.BspProjectMapper
 import org.jetbrains.bsp.bazel.server.sync.ExecuteService
+import org.jetbrains.bsp.bazel.server.sync.FileProjectStorage
+import org.jetbrains.bsp.bazel.server.sync.JdepsCache
 import org.jetbrains.bsp.bazel.server.sync.ProjectProvider
 import org.jetbrains.bsp.bazel.server.sync.ProjectResolver
 import org.jetbrains.bsp.bazel.server.sync.ProjectSyncService
@@ -114,7 +116,7 @@ class BazelBspServer(
   }
 
   private fun createLanguagePluginsService(bazelPathsResolver: BazelPathsResolver): LanguagePluginsService {
-    val jdkResolver = JdkResolver(bazelPathsResolver, JdkVersionResolver())
+    val jdkResolver = JdkResolver(bazelPathsResolver, JdkVersionResolver(bspInfo.bazelBspDir().resolve(JdkVersionResolver.FILE_NAME)))
     val javaLanguagePlugin = JavaLanguagePlugin(workspaceContextProvider, bazelPathsResolver, jdkResolver)
     val scalaLanguagePlugin = ScalaLanguagePlugin(javaLanguagePlugin, bazelPathsResolver)
     val cppLanguagePlugin = CppLanguagePlugin(bazelPathsResolver)
@@ -166,6 +168,7 @@ class BazelBspServer(
         targetTagsResolver,
         kotlinAndroidModulesMerger,
         bspClientLogger,
+        JdepsCache(bspInfo.bazelBspDir().resolve(JdepsCache.FILE_NAME)),
       )
     val targetInfoReader = TargetInfoReader(bspClientLogger)
 
@@ -182,7 +185,8 @@ class BazelBspServer(
         bazelPathsResolver = bazelPathsResolver,
         bspClientLogger = bspClientLogger,
       )
-    return ProjectProvider(projectResolver)
+    val projectStorage = FileProjectStorage(bspInfo, workspaceContextProvider, bazelInfo, bspClientLogger)
+    return ProjectProvider(projectResolver, projectStorage)
   }
 
   fun buildServer(bspIntegrationData: BspIntegrationData): Launcher<JoinedBuildClient> {
@@ -22,7 +22,7 @@ class BepOutputBuilder(private val bazelPathsResolver: BazelPathsResolver) {
         files =
           namedSetOfFiles
             .filesList
-            .filter { it.name.endsWith("bsp-info.textproto") }
+            .filter { isBspInfoFile(it.name) }
             .map { it.toLocalPath() },
         children = namedSetOfFiles.fileSetsList.map { it.id },
       )
@@ -30,6 +30,8 @@ class BepOutputBuilder(private val bazelPathsResolver: BazelPathsResolver) {
     textProtoFileSets[id] = textProtoDepSet
   }
 
+  private fun isBspInfoFile(name: String): Boolean = BSP_INFO_FILE_SUFFIXES.any { name.endsWith(it) }
+
   private fun BuildEventStreamProtos.File.toLocalPath(): Path {
     val mergedPathPrefix = Path(pathPrefixList.joinToString(File.separator))
     val bazelOutputRelativePath = mergedPathPrefix.resolve(name)
@@ -53,4 +55,9 @@ class BepOutputBuilder(private val bazelPathsResolver: BazelPathsResolver) {
   }
 
   fun build(): BepOutput = BepOutput(outputGroups, textProtoFileSets, rootTargets)
+
+  companion object {
+    // JSON is written by the current aspect, text protos by the older ones
+    private val BSP_INFO_FILE_SUFFIXES = listOf("bsp-info.json", "bsp-info.textproto")
+  }
 }
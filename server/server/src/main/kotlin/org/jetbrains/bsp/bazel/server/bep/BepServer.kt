@@ -6,9 +6,9 @@ import ch.epfl.scala.bsp4j.CompileTask
 import ch.epfl.scala.bsp4j.TaskFinishDataKind
 import ch.epfl.scala.bsp4j.TaskFinishParams
 import ch.epfl.scala.bsp4j.TaskId
+import ch.epfl.scala.bsp4j.TaskProgressParams
 import ch.epfl.scala.bsp4j.TaskStartDataKind
 import ch.epfl.scala.bsp4j.TaskStartParams
-import ch.epfl.scala.bsp4j.TestReport
 import ch.epfl.scala.bsp4j.TestStatus
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos
 import com.google.devtools.build.v1.BuildEvent
@@ -48,8 +48,14 @@ class BepServer(
   private val bepLogger = BepLogger(bspClientLogger)
 
   private var startedEvent: TaskId? = null
+  private var isTestCommand = false
   private val bepOutputBuilder = BepOutputBuilder(bazelPathsResolver)
 
+  // files with diagnostics and targets built successfully in this build, for clearing stale diagnostics at its end
+  private val reportedDiagnostics = mutableMapOf<DiagnosticsService.DocumentInTarget, Int>()
+  private val succeededTargets = mutableSetOf<Label>()
+  private val testTargetExecutions = mutableMapOf<Label, TestTargetExecution>()
+
   override fun publishLifecycleEvent(request: PublishLifecycleEventRequest, responseObserver: StreamObserver<Empty>) {
     responseObserver.onNext(Empty.getDefaultInstance())
     responseObserver.onCompleted()
@@ -74,6 +80,7 @@ class BepServer(
   fun handleBuildEventStreamProtosEvent(event: BuildEventStreamProtos.BuildEvent) {
     processBuildStartedEvent(event)
     processProgressEvent(event)
+    processTargetConfiguredEvent(event)
     processBuildMetrics(event)
     processFinishedEvent(event)
     processActionCompletedEvent(event)
@@ -90,14 +97,12 @@ class BepServer(
         return
       }
 
-      val bspClientTestNotifier = BspClientTestNotifier(bspClient, originId)
       val testResult = event.testResult
+      // a single `bazel test` may run many targets, their results are reported under one task per target
+      val testTarget = startedTestTarget(Label.parse(event.id.testResult.label), originId)
+      val taskId = testTarget.taskId
+      val bspClientTestNotifier = testTarget.notifier
 
-      val taskId = TaskId(UUID.randomUUID().toString())
-
-      bspClientTestNotifier.beginTestTarget(target, taskId)
-
-      // TODO: this is the place where we could parse the test result and produce individual test events
       // TODO: there's some other interesting data
       //  If testing is requested, a TestResult event is sent for each test attempt,
       //  shard, and run per test. This allows BEP consumers to identify precisely
@@ -121,7 +126,7 @@ class BepServer(
       val coverageReportUri = testResult.testActionOutputList.find { it.name == "test.lcov" }?.uri
       if (coverageReportUri != null) {
         bspClient.onBuildPublishOutput(
-          PublishOutputParams(originId, taskId, target, TestCoverageReport.DATA_KIND, TestCoverageReport(coverageReportUri)),
+          PublishOutputParams(originId, taskId, testTarget.target, TestCoverageReport.DATA_KIND, TestCoverageReport(coverageReportUri)),
         )
       }
 
@@ -137,32 +142,39 @@ class BepServer(
         bspClientTestNotifier.finishTest("Test", childId, testStatus, "Test finished")
       }
 
-      val passed = if (testStatus == TestStatus.PASSED) 1 else 0
-      val failed = if (testStatus == TestStatus.FAILED) 1 else 0
-      val ignored = if (testStatus == TestStatus.IGNORED) 1 else 0
-      val cancelled = if (testStatus == TestStatus.CANCELLED) 1 else 0
-      val skipped = if (testStatus == TestStatus.SKIPPED) 1 else 0
-
-      val testReport =
-        TestReport(
-          target,
-          passed,
-          failed,
-          ignored,
-          cancelled,
-          skipped,
-        )
+      testTarget.record(event.id.testResult, testStatus)
+    }
+  }
+
+  private fun startedTestTarget(label: Label, originId: String): TestTargetExecution =
+    testTargetExecutions.getOrPut(label) {
+      val target = BuildTargetIdentifier(label.value)
+      val taskId = TaskId(UUID.randomUUID().toString())
+      val notifier = BspClientTestNotifier(bspClient, originId)
+      notifier.beginTestTarget(target, taskId)
+      TestTargetExecution(target, taskId, notifier)
+    }
 
-      bspClientTestNotifier.endTestTarget(testReport, taskId)
+  // test targets are reported as started once configured, so the client shows them before their first result
+  private fun processTargetConfiguredEvent(event: BuildEventStreamProtos.BuildEvent) {
+    if (!isTestCommand || originId == null || !event.hasConfigured()) return
+    if (event.configured.testSize != BuildEventStreamProtos.TestSize.UNKNOWN) {
+      startedTestTarget(Label.parse(event.id.targetConfigured.label), originId)
     }
   }
 
+  // the summary is sent once all attempts, shards and runs of a test target are done
   private fun processTestSummary(event: BuildEventStreamProtos.BuildEvent) {
     if (event.hasTestSummary()) {
-      // TODO: this is probably only relevant in remote scenarios
+      testTargetExecutions.remove(Label.parse(event.id.testSummary.label))?.finish(event.testSummary)
     }
   }
 
+  private fun finishRemainingTestTargets() {
+    testTargetExecutions.values.forEach { it.finish() }
+    testTargetExecutions.clear()
+  }
+
   private fun fetchNamedSet(event: BuildEventStreamProtos.BuildEvent) {
     if (event.id.hasNamedSet()) {
       bepOutputBuilder.storeNamedSet(
@@ -173,15 +185,27 @@ class BepServer(
   }
 
   private fun processBuildStartedEvent(event: BuildEventStreamProtos.BuildEvent) {
-    if (event.hasStarted() && event.started.command == Constants.BAZEL_BUILD_COMMAND) { // todo: why only build?
+    if (event.hasStarted() && event.started.command in REPORTED_COMMANDS) {
+      isTestCommand = event.started.command != Constants.BAZEL_BUILD_COMMAND
       consumeBuildStartedEvent(event.started)
     }
   }
 
+  /**
+   * The console output is already logged from the Bazel process, so the chunks of it sent in the BEP
+   * are forwarded as the progress of the command's task instead, as soon as Bazel publishes them.
+   */
   private fun processProgressEvent(event: BuildEventStreamProtos.BuildEvent) {
-    if (event.hasProgress()) {
-      // TODO https://youtrack.jetbrains.com/issue/BAZEL-622
-      // bepLogger.onProgress(event.getProgress());
+    val taskId = startedEvent
+    if (event.hasProgress() && taskId != null) {
+      listOf(event.progress.stderr, event.progress.stdout)
+        .filter { it.isNotBlank() }
+        .forEach { output ->
+          val progressParams = TaskProgressParams(taskId)
+          progressParams.originId = originId
+          progressParams.message = output
+          bspClient.onBuildTaskProgress(progressParams)
+        }
     }
   }
 
@@ -213,6 +237,11 @@ class BepServer(
   }
 
   private fun consumeFinishedEvent(buildFinished: BuildEventStreamProtos.BuildFinished) {
+    finishRemainingTestTargets()
+    diagnosticsService
+      .staleDiagnostics(succeededTargets, reportedDiagnostics.keys, originId)
+      .forEach { bspClient.onBuildPublishDiagnostics(it) }
+
     val taskId = startedEvent
 
     if (taskId == null) {
@@ -252,8 +281,8 @@ class BepServer(
       BuildEventStreamProtos.File.FileCase.URI -> {
         try {
           val path = Paths.get(URI.create(event.stderr.uri))
-          val stdErrText = Files.readString(path)
-          processDiagnosticText(stdErrText, label)
+          // compiler outputs can be huge, so they are parsed while being read
+          Files.newBufferedReader(path).useLines { processDiagnosticLines(it, label) }
         } catch (e: FileSystemNotFoundException) {
           LOGGER.warn(e)
         } catch (e: IOException) {
@@ -262,26 +291,27 @@ class BepServer(
       }
 
       BuildEventStreamProtos.File.FileCase.CONTENTS -> {
-        processDiagnosticText(event.stderr.contents.toStringUtf8(), label)
+        if (!event.stderr.contents.isEmpty) {
+          processDiagnosticLines(event.stderr.contents.toStringUtf8().lineSequence(), label)
+        }
       }
 
       else -> {}
     }
   }
 
-  private fun processDiagnosticText(stdErrText: String, targetLabel: Label) {
-    if (stdErrText.isNotEmpty()) {
-      val events =
-        diagnosticsService.extractDiagnostics(
-          stdErrText,
-          targetLabel,
-          originId,
-        )
-      events.forEach {
-        bspClient.onBuildPublishDiagnostics(
-          it,
-        )
-      }
+  private fun processDiagnosticLines(stdErrLines: Sequence<String>, targetLabel: Label) {
+    val events =
+      diagnosticsService.changedDiagnostics(
+        stdErrLines,
+        targetLabel,
+        originId,
+        reportedDiagnostics,
+      )
+    events.forEach {
+      bspClient.onBuildPublishDiagnostics(
+        it,
+      )
     }
   }
 
@@ -294,6 +324,9 @@ class BepServer(
     val labelText = if (target != null && ("@$eventLabel" == target.uri || "@@$eventLabel" == target.uri)) target.uri else eventLabel
     val label = Label.parse(labelText)
     val targetComplete = event.completed
+    if (targetComplete.success) {
+      succeededTargets.add(label)
+    }
     val outputGroups = targetComplete.outputGroupList
     LOGGER.trace("Consuming target completed event {}", targetComplete)
     bepOutputBuilder.storeTargetOutputGroups(label, outputGroups)
@@ -319,5 +352,8 @@ class BepServer(
 
   companion object {
     private val LOGGER: Logger = LogManager.getLogger(BepServer::class.java)
+
+    private val REPORTED_COMMANDS =
+      setOf(Constants.BAZEL_BUILD_COMMAND, Constants.BAZEL_TEST_COMMAND, Constants.BAZEL_COVERAGE_COMMAND)
   }
 }
@@ -0,0 +1,55 @@
+package org.jetbrains.bsp.bazel.server.bep
+
+import ch.epfl.scala.bsp4j.BuildTargetIdentifier
+import ch.epfl.scala.bsp4j.TaskId
+import ch.epfl.scala.bsp4j.TestReport
+import ch.epfl.scala.bsp4j.TestStatus
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos
+import org.jetbrains.bsp.bazel.logger.BspClientTestNotifier
+
+/**
+ * Test task of a single target, collecting the statuses of all its test results (attempts, shards and runs)
+ * until it is [finish]ed. Every result is reported as the task progress as soon as it arrives,
+ * so the client sees long sharded suites advance before the whole target is done.
+ */
+internal class TestTargetExecution(
+  val target: BuildTargetIdentifier,
+  val taskId: TaskId,
+  val notifier: BspClientTestNotifier,
+) {
+  private val statusCounts = mutableMapOf<TestStatus, Int>()
+  private var finishedActions = 0L
+
+  fun record(id: BuildEventStreamProtos.BuildEventId.TestResultId, status: TestStatus) {
+    statusCounts.merge(status, 1, Int::plus)
+    finishedActions++
+    notifier.progressTestTarget(taskId, "Run ${id.run}, shard ${id.shard}, attempt ${id.attempt}: $status", finishedActions)
+  }
+
+  /** @param summary the target's summary, `null` if the build finished before Bazel sent it */
+  fun finish(summary: BuildEventStreamProtos.TestSummary? = null) {
+    val testReport =
+      TestReport(
+        target,
+        count(TestStatus.PASSED),
+        count(TestStatus.FAILED),
+        count(TestStatus.IGNORED),
+        count(TestStatus.CANCELLED),
+        count(TestStatus.SKIPPED),
+      )
+    summary?.let { testReport.time = it.totalRunDurationMillis }
+    notifier.endTestTarget(testReport, taskId, summary?.let(::describe))
+  }
+
+  private fun count(status: TestStatus): Int = statusCounts[status] ?: 0
+
+  // e.g. "FLAKY: 4 test actions (2 runs, 2 shards, at most 2 attempts), 1 cached"
+  private fun describe(summary: BuildEventStreamProtos.TestSummary): String =
+    buildString {
+      append("${summary.overallStatus}: ${summary.totalRunCount} test actions")
+      append(" (${summary.runCount} runs, ${summary.shardCount} shards, at most ${summary.attemptCount} attempts)")
+      if (summary.totalNumCached > 0) {
+        append(", ${summary.totalNumCached} cached")
+      }
+    }
+}
@@ -2,162 +2,156 @@ package org.jetbrains.bsp.bazel.server.bep
 
 import ch.epfl.scala.bsp4j.TaskId
 import ch.epfl.scala.bsp4j.TestStatus
-import com.fasterxml.jackson.databind.DeserializationFeature
-import com.fasterxml.jackson.dataformat.xml.XmlMapper
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlText
-import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import org.apache.logging.log4j.LogManager
+import org.apache.logging.log4j.Logger
 import org.jetbrains.bsp.bazel.logger.BspClientTestNotifier
 import org.jetbrains.bsp.protocol.JUnitStyleTestCaseData
 import org.jetbrains.bsp.protocol.JUnitStyleTestSuiteData
-import java.io.File
 import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Paths
 import java.util.UUID
-
-@JacksonXmlRootElement(localName = "testsuites")
-data class TestSuites(
-  @JacksonXmlElementWrapper(useWrapping = false)
-  @JacksonXmlProperty(localName = "testsuite")
-  val testsuite: List<TestSuite> = emptyList(),
-)
-
-data class TestSuite(
-  // Individual test cases are grouped within a suite.
-  @JacksonXmlProperty(isAttribute = true)
-  val name: String,
-  @JacksonXmlProperty(isAttribute = true)
-  val timestamp: String,
-  @JacksonXmlProperty(isAttribute = true)
-  val hostname: String,
-  @JacksonXmlProperty(isAttribute = true)
-  val tests: Int,
-  @JacksonXmlProperty(isAttribute = true)
-  val failures: Int,
-  @JacksonXmlProperty(isAttribute = true)
-  val errors: Int,
-  @JacksonXmlProperty(isAttribute = true)
-  val time: Double,
-  @JacksonXmlProperty(isAttribute = true)
-  val id: Int,
-  @JacksonXmlElementWrapper(useWrapping = false)
-  @JacksonXmlProperty(localName = "testcase")
-  val testcase: List<TestCase> = emptyList(),
-  @JacksonXmlProperty(localName = "system-out")
-  val systemOut: Any? = null,
-  @JacksonXmlProperty(localName = "system-err")
-  val systemErr: Any? = null,
-  @JacksonXmlProperty(isAttribute = true, localName = "package")
-  val pkg: String?,
-  val properties: Any? = null,
-)
-
-data class TestCase(
-  // Name of the test case, typically method name.
-  @JacksonXmlProperty(isAttribute = true)
-  val name: String,
-  // Class name corresponding to the test case.
-  @JacksonXmlProperty(isAttribute = true)
-  val classname: String,
-  // Time value included with the test case.
-  @JacksonXmlProperty(isAttribute = true)
-  val time: Double,
-  // One of the following will be included if test did not pass.
-  @JacksonXmlProperty(localName = "error")
-  val error: TestResultDetail? = null,
-  @JacksonXmlProperty(localName = "failure")
-  val failure: TestResultDetail? = null,
-  @JacksonXmlProperty(localName = "skipped")
-  val skipped: TestResultDetail? = null,
-)
-
-// This is a regular class due to limitations deserializing plain xml tag contents.
-// https://github.com/FasterXML/jackson-dataformat-xml/issues/615
-class TestResultDetail {
-  // Shortened error message, as provided by the test framework.
-  @JacksonXmlProperty(isAttribute = true)
-  var message: String? = null
-
-  // Error type information.
-  // This typically gives the class name of the error, but may be absent or used for a similar alternative value.
-  @JacksonXmlProperty(isAttribute = true)
-  var type: String? = null
-
-  // Content between the tags, which typically includes the full error stack trace.
-  @JacksonXmlText(value = true)
-  @JacksonXmlProperty(localName = "")
-  var content: String? = null
-}
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
 
 class TestXmlParser(private var parentId: TaskId, private var bspClientTestNotifier: BspClientTestNotifier) {
-  private val fallbackTestXmlParser = FallbackTestXmlParser(parentId, bspClientTestNotifier)
-
   /**
    * Processes a test result xml file, reporting suite and test case results as task start and finish notifications.
    * Parent-child relationship is identified within each suite based on the TaskId.
+   *
+   * The file is read with a streaming parser and each test case is reported as soon as its element is closed,
+   * so the memory used does not depend on the size of the report - texts longer than [MAX_TEXT_LENGTH]
+   * (e.g. the captured output of a suite) are truncated.
    * @param testXmlUri Uri corresponding to the test result xml file to be processed.
    */
   fun parseAndReport(testXmlUri: String) {
-    val testSuites = parseTestXml(testXmlUri, TestSuites::class.java)
-    testSuites?.testsuite?.forEach { suite ->
-      processSuite(suite)
-    } ?: let {
-      parseTestXml(testXmlUri, FallbackTestXmlParser.IncompleteTestSuites::class.java)
-    }?.testsuite?.forEach { suite ->
-      fallbackTestXmlParser.processIncompleteInfoSuite(suite)
+    Files.newInputStream(Paths.get(URI.create(testXmlUri))).buffered().use { input ->
+      val reader = xmlInputFactory.createXMLStreamReader(input)
+      val report = StreamedReport()
+      try {
+        report.read(reader)
+      } catch (e: XMLStreamException) {
+        LOGGER.warn("Could not parse test report {}", testXmlUri, e)
+      } finally {
+        report.finishOpenSuite()
+        reader.close()
+      }
     }
   }
 
   /**
-   * Deserialize the given test report into the TestSuites/IncompleteTestSuites type as defined above.
+   * State of a single report read element by element. Only the suite and the test case currently being read
+   * are kept in memory.
    */
-  private fun <T> parseTestXml(uri: String, valueType: Class<T>): T? {
-    val xmlMapper =
-      XmlMapper().apply {
-        registerKotlinModule()
-        configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+  private inner class StreamedReport {
+    private var depth = 0
+    private var suite: TestSuite? = null
+    private var testCase: TestCase? = null
+
+    // text content of the element at textDepth, which is being read
+    private var text: BoundedText? = null
+    private var textDepth = 0
+    private var onTextRead: (String) -> Unit = {}
+
+    fun read(reader: XMLStreamReader) {
+      while (reader.hasNext()) {
+        when (reader.next()) {
+          XMLStreamConstants.START_ELEMENT -> {
+            depth++
+            startElement(reader)
+          }
+
+          XMLStreamConstants.END_ELEMENT -> {
+            endElement(reader.localName)
+            depth--
+          }
+
+          XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+            text?.append(reader.textCharacters, reader.textStart, reader.textLength)
+        }
       }
+    }
 
-    var rawContent = File(URI.create(uri)).readText()
-    // Single empty tag does not deserialize properly, replace with empty pair.
-    rawContent = rawContent.replace("<skipped />", "<skipped></skipped>")
-    val testSuites: T? =
-      runCatching {
-        xmlMapper.readValue(rawContent, valueType)
-      }.onFailure { }.getOrNull()
-    return testSuites
-  }
+    private fun startElement(reader: XMLStreamReader) {
+      val suite = suite
+      val testCase = testCase
+      when (reader.localName) {
+        // nested suites are reported as a part of the outermost one
+        "testsuite" -> if (suite == null) startSuite(reader)
+        "testcase" -> if (suite != null && testCase == null) this.testCase = TestCase.read(reader, depth)
+        "error", "failure", "skipped" ->
+          if (testCase != null && reader.localName !in testCase.details) {
+            val detail = TestResultDetail(reader.getAttributeValue(null, "message"), reader.getAttributeValue(null, "type"))
+            testCase.details[reader.localName] = detail
+            readText { detail.content = it }
+          }
 
-  /**
-   * Convert each TestSuite into a series of taskStart and taskFinish notification to the client.
-   * The parents field in each notification's TaskId will be used to indicate the parent-child relationship.
-   * @param suite TestSuite to be processed.
-   */
-  private fun processSuite(suite: TestSuite) {
-    val suiteTaskId = TaskId(UUID.randomUUID().toString())
-    suiteTaskId.parents = emptyList()
-
-    val suiteData = JUnitStyleTestSuiteData(suite.time, null, suite.systemErr?.toString())
-    val suiteStatus =
-      when {
-        suite.failures > 0 -> TestStatus.FAILED
-        suite.errors > 0 -> TestStatus.FAILED
-        else -> TestStatus.PASSED
+        "system-out" -> if (suite != null && testCase == null) readText { suite.systemOut = it }
+        "system-err" -> if (suite != null && testCase == null) readText { suite.systemErr = it }
       }
+    }
 
-    bspClientTestNotifier.startTest(suite.name, suiteTaskId)
-    suite.testcase.forEach { case ->
-      processTestCase(suiteTaskId.id, case)
+    private fun readText(onRead: (String) -> Unit) {
+      if (text == null) {
+        text = BoundedText()
+        textDepth = depth
+        onTextRead = onRead
+      }
+    }
+
+    private fun endElement(name: String) {
+      val text = text
+      if (text != null && depth == textDepth) {
+        this.text = null
+        onTextRead(text.toString())
+      }
+      val suite = suite ?: return
+      val testCase = testCase
+      if (name == "testcase" && testCase != null && depth == testCase.depth) {
+        this.testCase = null
+        if (suite.isComplete) {
+          processTestCase(suite.taskId.id, testCase)
+        } else if (suite.reportedTestCases == 0) {
+          processIncompleteInfoCase(testCase, suite.taskId.id, suite.status)
+        }
+        suite.reportedTestCases++
+      } else if (name == "testsuite" && depth == suite.depth) {
+        finishOpenSuite()
+      }
+    }
+
+    private fun startSuite(reader: XMLStreamReader) {
+      val suite = TestSuite.read(reader, depth)
+      bspClientTestNotifier.startTest(suite.name, suite.taskId)
+      this.suite = suite
+    }
+
+    fun finishOpenSuite() {
+      val suite = suite ?: return
+      this.suite = null
+      this.testCase = null
+      if (suite.isComplete) {
+        bspClientTestNotifier.finishTest(
+          suite.name,
+          suite.taskId,
+          suite.status,
+          suite.systemOut,
+          JUnitStyleTestSuiteData.DATA_KIND,
+          JUnitStyleTestSuiteData(suite.time, null, suite.systemErr),
+        )
+      } else {
+        bspClientTestNotifier.finishTest(
+          suite.name,
+          suite.taskId,
+          suite.status,
+          null,
+          JUnitStyleTestSuiteData.DATA_KIND,
+          JUnitStyleTestSuiteData(null, suite.systemOut, null),
+        )
+      }
     }
-    bspClientTestNotifier.finishTest(
-      suite.name,
-      suiteTaskId,
-      suiteStatus,
-      suite.systemOut.toString(),
-      JUnitStyleTestSuiteData.DATA_KIND,
-      suiteData,
-    )
   }
 
   /**
@@ -170,46 +164,23 @@ class TestXmlParser(private var parentId: TaskId, private var bspClientTestNotif
     val testCaseTaskId = TaskId(UUID.randomUUID().toString())
     testCaseTaskId.parents = listOf(parentId)
 
-    // Extract the error summary message.
-    val outcomeMessage =
-      when {
-        testCase.error != null -> testCase.error.message
-        testCase.failure != null -> testCase.failure.message
-        testCase.skipped != null -> testCase.skipped.message
-        else -> null
-      }
-
-    // Extract the full error message content.
-    val fullOutput =
-      when {
-        testCase.error != null -> testCase.error.content
-        testCase.failure != null -> testCase.failure.content
-        testCase.skipped != null -> testCase.skipped.content
-        else -> ""
-      }
-
+    val outcome = testCase.outcome()
     // Map the outcome into a TestStatus value.
     val testStatusOutcome =
-      when {
-        testCase.error != null -> TestStatus.FAILED
-        testCase.failure != null -> TestStatus.FAILED
-        testCase.skipped != null -> TestStatus.SKIPPED
+      when (outcome?.first) {
+        "error", "failure" -> TestStatus.FAILED
+        "skipped" -> TestStatus.SKIPPED
         else -> TestStatus.PASSED
       }
 
     // Extract error type information if provided.
-    val errorType =
-      when {
-        testCase.error != null -> testCase.error.type
-        testCase.failure != null -> testCase.failure.type
-        else -> null
-      }
+    val errorType = outcome?.takeIf { it.first != "skipped" }?.second?.type
     val testCaseData =
       JUnitStyleTestCaseData(
         testCase.time,
         testCase.classname,
-        outcomeMessage,
-        fullOutput,
+        outcome?.second?.message,
+        outcome?.second?.content ?: "",
         errorType,
       )
     bspClientTestNotifier.startTest(testCase.name, testCaseTaskId)
@@ -222,91 +193,21 @@ class TestXmlParser(private var parentId: TaskId, private var bspClientTestNotif
       testCaseData,
     )
   }
-}
-
-/** Bazel has a separate way of parsing JUnit4 and JUnit5 test results into a xml file, resulting in
- * incomplete data about the latter.
- * **/
-private class FallbackTestXmlParser(private var parentId: TaskId, private var bspClientTestNotifier: BspClientTestNotifier) {
-  @JacksonXmlRootElement(localName = "testsuites")
-  data class IncompleteTestSuites(
-    @JacksonXmlElementWrapper(useWrapping = false)
-    @JacksonXmlProperty(localName = "testsuite")
-    val testsuite: List<IncompleteTestSuite> = emptyList(),
-  )
-
-  data class IncompleteTestSuite(
-    @JacksonXmlProperty(isAttribute = true)
-    val name: String,
-    @JacksonXmlProperty(isAttribute = true)
-    val failures: Int,
-    @JacksonXmlProperty(isAttribute = true)
-    val errors: Int,
-    @JacksonXmlProperty(localName = "system-out")
-    val systemOut: String? = null,
-    @JacksonXmlElementWrapper(useWrapping = false)
-    @JacksonXmlProperty(localName = "testcase")
-    val testcase: List<IncompleteTestCase> = emptyList(),
-  )
-
-  data class IncompleteTestCase(
-    @JacksonXmlProperty(isAttribute = true)
-    val name: String,
-    @JacksonXmlProperty(localName = "error")
-    val error: TestResultDetail? = null,
-    @JacksonXmlProperty(localName = "failure")
-    val failure: TestResultDetail? = null,
-    @JacksonXmlProperty(localName = "skipped")
-    val skipped: TestResultDetail? = null,
-  )
-
-  // A Bazel target is represented by a test suite containing one test case
-  fun processIncompleteInfoSuite(suite: IncompleteTestSuite) {
-    val suiteTaskId = TaskId(UUID.randomUUID().toString())
-    suiteTaskId.parents = emptyList()
-    val suiteStatus =
-      when {
-        suite.failures > 0 -> TestStatus.FAILED
-        suite.errors > 0 -> TestStatus.FAILED
-        else -> TestStatus.PASSED
-      }
-    val testSuiteData = JUnitStyleTestSuiteData(null, suite.systemOut, null)
-    val testCase = suite.testcase.firstOrNull()
-
-    bspClientTestNotifier.startTest(suite.name, suiteTaskId)
-    testCase?.let { processIncompleteInfoCase(it, suiteTaskId.id, suiteStatus) }
-    bspClientTestNotifier.finishTest(
-      suite.name,
-      suiteTaskId,
-      suiteStatus,
-      null,
-      JUnitStyleTestSuiteData.DATA_KIND,
-      testSuiteData,
-    )
-  }
 
   /**
-   * Converts a TestCase into a testStart and a testFinish events.
+   * Bazel has a separate way of parsing JUnit4 and JUnit5 test results into a xml file, resulting in
+   * incomplete data about the latter - a Bazel target is represented by a test suite containing one test case.
    * @param testSuiteStatus - using test suite's status as test case status, because the xml one is not correct
    */
   private fun processIncompleteInfoCase(
-    testCase: IncompleteTestCase,
+    testCase: TestCase,
     parentId: String,
     testSuiteStatus: TestStatus,
   ) {
     val testCaseTaskId = TaskId(UUID.randomUUID().toString())
     testCaseTaskId.parents = listOf(parentId)
 
-    // Extract the error summary message.
-    val outcomeMessage =
-      when {
-        testCase.error != null -> testCase.error.message
-        testCase.failure != null -> testCase.failure.message
-        testCase.skipped != null -> testCase.skipped.message
-        else -> null
-      }
-
-    val testCaseData = JUnitStyleTestCaseData(null, null, outcomeMessage, null, null)
+    val testCaseData = JUnitStyleTestCaseData(null, null, testCase.outcome()?.second?.message, null, null)
 
     // In the generated xml, suite name and test case name are the same, but in the Test Console test names have
     // to be unique
@@ -321,4 +222,99 @@ private class FallbackTestXmlParser(private var parentId: TaskId, private var bs
       testCaseData,
     )
   }
+
+  private class TestSuite(
+    val name: String,
+    val status: TestStatus,
+    val time: Double?,
+    // false for the incomplete suites generated by Bazel for JUnit5 tests
+    val isComplete: Boolean,
+    val depth: Int,
+  ) {
+    val taskId = TaskId(UUID.randomUUID().toString()).apply { parents = emptyList() }
+    var systemOut: String? = null
+    var systemErr: String? = null
+    var reportedTestCases = 0
+
+    companion object {
+      private val COMPLETE_SUITE_ATTRIBUTES = listOf("name", "timestamp", "hostname")
+
+      fun read(reader: XMLStreamReader, depth: Int): TestSuite {
+        val failures = reader.getAttributeValue(null, "failures")?.toIntOrNull() ?: 0
+        val errors = reader.getAttributeValue(null, "errors")?.toIntOrNull() ?: 0
+        return TestSuite(
+          name = reader.getAttributeValue(null, "name").orEmpty(),
+          status = if (failures > 0 || errors > 0) TestStatus.FAILED else TestStatus.PASSED,
+          time = reader.getAttributeValue(null, "time")?.toDoubleOrNull(),
+          isComplete = COMPLETE_SUITE_ATTRIBUTES.all { reader.getAttributeValue(null, it) != null },
+          depth = depth,
+        )
+      }
+    }
+  }
+
+  private class TestCase(
+    val name: String,
+    val classname: String?,
+    val time: Double?,
+    val depth: Int,
+  ) {
+    // One of the following will be included if test did not pass: error, failure or skipped.
+    val details = mutableMapOf<String, TestResultDetail>()
+
+    fun outcome(): Pair<String, TestResultDetail>? =
+      listOf("error", "failure", "skipped").firstNotNullOfOrNull { kind -> details[kind]?.let { kind to it } }
+
+    companion object {
+      fun read(reader: XMLStreamReader, depth: Int): TestCase =
+        TestCase(
+          name = reader.getAttributeValue(null, "name").orEmpty(),
+          classname = reader.getAttributeValue(null, "classname"),
+          time = reader.getAttributeValue(null, "time")?.toDoubleOrNull(),
+          depth = depth,
+        )
+    }
+  }
+
+  private class TestResultDetail(
+    // Shortened error message, as provided by the test framework.
+    val message: String?,
+    // This typically gives the class name of the error, but may be absent or used for a similar alternative value.
+    val type: String?,
+  ) {
+    // Content between the tags, which typically includes the full error stack trace.
+    var content: String? = null
+  }
+
+  /** Keeps the first [MAX_TEXT_LENGTH] characters of a text, only counting the rest. */
+  private class BoundedText {
+    private val text = StringBuilder()
+    private var truncated = 0L
+
+    fun append(
+      characters: CharArray,
+      start: Int,
+      length: Int,
+    ) {
+      val kept = minOf(length, MAX_TEXT_LENGTH - text.length)
+      text.appendRange(characters, start, start + kept)
+      truncated += length - kept
+    }
+
+    override fun toString(): String = if (truncated == 0L) text.toString() else "$text\n... ($truncated more characters truncated)"
+  }
+
+  companion object {
+    private val LOGGER: Logger = LogManager.getLogger(TestXmlParser::class.java)
+
+    const val MAX_TEXT_LENGTH = 1 shl 16
+
+    // the JDK implementation, as it can be configured to return CDATA sections (e.g. captured output) in chunks
+    private val xmlInputFactory =
+      XMLInputFactory.newDefaultFactory().apply {
+        setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        setProperty("jdk.xml.cdataChunkSize", MAX_TEXT_LENGTH)
+      }
+  }
 }
@@ -3,11 +3,11 @@ package org.jetbrains.bsp.bazel.server.bsp
 import io.opentelemetry.context.Context
 import org.apache.logging.log4j.LogManager
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
-import org.eclipse.lsp4j.jsonrpc.CompletableFutures
 import org.eclipse.lsp4j.jsonrpc.ResponseErrorException
 import org.eclipse.lsp4j.jsonrpc.messages.Either
 import org.eclipse.lsp4j.jsonrpc.messages.ResponseError
 import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode
+import org.jetbrains.bsp.bazel.bazelrunner.utils.FutureCancelChecker
 import java.io.PrintWriter
 import java.io.StringWriter
 import java.util.concurrent.CompletableFuture
@@ -78,7 +78,7 @@ class BspRequestsRunner(private val serverLifetime: BazelBspServerLifetime) {
   private fun <T> runAsync(methodName: String, request: (CancelChecker) -> T): CompletableFuture<T> {
     val telemetryContext = Context.current()
     val asyncRequest =
-      CompletableFutures.computeAsync { cancelChecker ->
+      FutureCancelChecker.computeAsync { cancelChecker ->
         telemetryContext.makeCurrent().use { request(cancelChecker) }
       }
     return CancellableFuture
@@ -1,6 +1,7 @@
 package org.jetbrains.bsp.bazel.server.bsp.managers
 
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import org.jetbrains.bsp.bazel.bazelrunner.BazelCommandPriority
 import org.jetbrains.bsp.bazel.bazelrunner.BazelRunner
 import org.jetbrains.bsp.bazel.server.bep.BepServer
 import org.jetbrains.bsp.bazel.server.diagnostics.DiagnosticsService
@@ -17,6 +18,9 @@ class BazelBspCompilationManager(
   val client: JoinedBuildClient,
   val workspaceRoot: Path,
 ) {
+  // shared by all builds, so that unchanged diagnostics are not published again
+  val diagnosticsService = DiagnosticsService(workspaceRoot)
+
   fun buildTargetsWithBep(
     cancelChecker: CancelChecker,
     targetSpecs: TargetsSpec,
@@ -25,7 +29,6 @@ class BazelBspCompilationManager(
     environment: List<Pair<String, String>> = emptyList(),
   ): BepBuildResult {
     val target = targetSpecs.values.firstOrNull()
-    val diagnosticsService = DiagnosticsService(workspaceRoot)
     val bepServer = BepServer(client, diagnosticsService, originId, target, bazelPathsResolver)
     val bepReader = BepReader(bepServer)
     return try {
@@ -39,10 +42,15 @@ class BazelBspCompilationManager(
             useBes(bepReader.eventFile.toPath().toAbsolutePath())
           }
         }
+      // only used for syncing, which should not hold up interactive requests
       val result =
         bazelRunner
-          .runBazelCommand(command, originId = originId, serverPidFuture = bepReader.serverPid)
-          .waitAndGetResult(cancelChecker, true)
+          .runBazelCommand(
+            command,
+            originId = originId,
+            serverPidFuture = bepReader.serverPid,
+            priority = BazelCommandPriority.BACKGROUND,
+          ).waitAndGetResult(cancelChecker, true)
       bepReader.finishBuild()
       bepReader.await()
       BepBuildResult(result, bepServer.bepOutput)
@@ -1,57 +1,115 @@
 package org.jetbrains.bsp.bazel.server.bsp.managers;
 
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.bsp.bazel.server.bep.BepServer;
 
+/**
+ * Reads the Build Event Protocol stream Bazel writes to {@link #getEventFile()}.
+ *
+ * <p>Where possible the event file is a named pipe: the reader blocks until Bazel writes the next
+ * event, so every event is handled as soon as it is written, and a slow reader makes Bazel's BEP
+ * writer wait instead of piling up events. If a named pipe cannot be created (e.g. on Windows),
+ * the events are written to a regular file which is polled until the build finishes.
+ *
+ * <p>The readers run on a shared pool of daemon threads, so consecutive builds reuse the same
+ * threads.
+ */
 public class BepReader {
+  private static final long POLLING_INTERVAL_MS = 50;
+  private static final int READ_BUFFER_SIZE = 1 << 16;
+
+  private static final AtomicInteger readerCount = new AtomicInteger();
+  private static final ExecutorService readers =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            var thread = new Thread(runnable, "bep-reader-" + readerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+
   private final BepServer bepServer;
   private final File eventFile;
+  private final boolean isNamedPipe;
 
   private final CompletableFuture<Boolean> bazelBuildFinished;
   private final CompletableFuture<Boolean> bepReaderFinished;
   private final CompletableFuture<Long> serverPid;
+  private final AtomicBoolean readerStarted = new AtomicBoolean();
+  private final AtomicBoolean pipeOpened = new AtomicBoolean();
 
   private final Logger logger = LogManager.getLogger(BepReader.class);
 
   public void start() {
-    new Thread(
-            () -> {
-              try {
-                logger.info("Start listening to BEP events");
-                var stream = new FileInputStream(eventFile);
-                BuildEventStreamProtos.BuildEvent event = null;
-                // It's important not to use the short-circuited ||, so that the events are parsed
-                // every time the loop condition is checked
-                while (!bazelBuildFinished.isDone()
-                    | (event = BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(stream))
-                        != null) {
-                  if (event != null) {
-                    bepServer.handleBuildEventStreamProtosEvent(event);
-                    setServerPid(event);
-                  } else {
-                    Thread.sleep(50);
-                  }
-                }
-                logger.info("BEP events listening finished");
-              } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-              } finally {
-                bepReaderFinished.complete(true);
-              }
-            })
-        .start();
+    readerStarted.set(true);
+    readers.execute(
+        () -> {
+          try {
+            logger.info("Start listening to BEP events");
+            if (isNamedPipe) {
+              readFromPipe();
+            } else {
+              pollFile();
+            }
+            logger.info("BEP events listening finished");
+          } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+          } finally {
+            deleteEventFile();
+            bepReaderFinished.complete(true);
+          }
+        });
+  }
+
+  private void readFromPipe() throws IOException {
+    // opening blocks until Bazel (or finishBuild, if Bazel never started writing) opens the pipe
+    try (var stream = new BufferedInputStream(new FileInputStream(eventFile), READ_BUFFER_SIZE)) {
+      pipeOpened.set(true);
+      // reading blocks until the next event is written and ends once Bazel closes the pipe
+      BuildEventStreamProtos.BuildEvent event;
+      while ((event = BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(stream)) != null) {
+        handleEvent(event);
+      }
+    }
+  }
+
+  private void pollFile() throws IOException, InterruptedException {
+    try (var stream = new FileInputStream(eventFile)) {
+      BuildEventStreamProtos.BuildEvent event = null;
+      // It's important not to use the short-circuited ||, so that the events are parsed
+      // every time the loop condition is checked
+      while (!bazelBuildFinished.isDone()
+          | (event = BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(stream)) != null) {
+        if (event != null) {
+          handleEvent(event);
+        } else {
+          Thread.sleep(POLLING_INTERVAL_MS);
+        }
+      }
+    }
+  }
+
+  private void handleEvent(BuildEventStreamProtos.BuildEvent event) {
+    bepServer.handleBuildEventStreamProtosEvent(event);
+    setServerPid(event);
   }
 
   private void setServerPid(BuildEventStreamProtos.BuildEvent event) {
@@ -65,7 +123,19 @@ public class BepReader {
   }
 
   public void finishBuild() {
-    bazelBuildFinished.complete(true);
+    if (bazelBuildFinished.complete(true)
+        && isNamedPipe
+        && readerStarted.get()
+        && !pipeOpened.get()) {
+      // Bazel did not open the pipe (e.g. the command failed before the build started),
+      // so the reader is still waiting for a writer - open and close it to let the reader finish.
+      // The reader has not closed the pipe yet, so this does not block.
+      try {
+        new FileOutputStream(eventFile).close();
+      } catch (IOException e) {
+        logger.warn("Could not close BEP pipe {}", eventFile, e);
+      }
+    }
   }
 
   public void await() throws ExecutionException, InterruptedException {
@@ -77,17 +147,63 @@ public class BepReader {
     this.bazelBuildFinished = new CompletableFuture<>();
     this.bepReaderFinished = new CompletableFuture<>();
     this.serverPid = new CompletableFuture<>();
-    var attrs =
-        PosixFilePermissions.asFileAttribute(
-            Stream.of(PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ)
-                .collect(Collectors.toSet()));
-    File file;
+    var pipe = createNamedPipe();
+    if (pipe != null) {
+      eventFile = pipe;
+      isNamedPipe = true;
+    } else {
+      eventFile = createTempFile();
+      isNamedPipe = false;
+    }
+  }
+
+  private File createNamedPipe() {
+    if (System.getProperty("os.name").toLowerCase().startsWith("windows")) {
+      return null;
+    }
     try {
-      file = Files.createTempFile("bazel-bsp-binary", null, attrs).toFile();
+      var directory = Files.createTempDirectory("bazel-bsp-bep", ownerOnly(true));
+      var pipe = directory.resolve("events");
+      var process = new ProcessBuilder("mkfifo", "-m", "600", pipe.toString()).start();
+      if (process.waitFor() == 0) {
+        return pipe.toFile();
+      }
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      logger.info("Could not create a named pipe for BEP events, falling back to a file", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return null;
+  }
+
+  private static File createTempFile() {
+    try {
+      return Files.createTempFile("bazel-bsp-binary", null, ownerOnly(false)).toFile();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    eventFile = file;
+  }
+
+  private static FileAttribute<?> ownerOnly(boolean executable) {
+    var permissions =
+        Stream.of(PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ)
+            .collect(Collectors.toSet());
+    if (executable) {
+      permissions.add(PosixFilePermission.OWNER_EXECUTE);
+    }
+    return PosixFilePermissions.asFileAttribute(permissions);
+  }
+
+  private void deleteEventFile() {
+    try {
+      Files.deleteIfExists(eventFile.toPath());
+      if (isNamedPipe) {
+        Files.deleteIfExists(eventFile.toPath().getParent());
+      }
+    } catch (IOException e) {
+      logger.warn("Could not delete BEP event file {}", eventFile, e);
+    }
   }
 
   public File getEventFile() {
@@ -4,76 +4,119 @@ import org.jetbrains.bsp.bazel.info.BspTargetInfo.Dependency
 import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
 import org.jetbrains.bsp.bazel.server.model.Label
 
-class DependencyGraph(private val rootTargets: Set<Label> = emptySet(), private val idToTargetInfo: Map<Label, TargetInfo> = emptyMap()) {
-  private val idToDirectDependenciesIds: Map<Label, Set<Label>>
-  private val idToLazyTransitiveDependencies: Map<Label, Lazy<Set<TargetInfo>>>
+/**
+ * Dependency graph over dense int ids, stored as compressed sparse rows (one offsets array and one array of all edges).
+ *
+ * Transitive dependencies are not materialized per target - every query is a single traversal marking visited nodes
+ * in a bitset, so the memory stays linear in the size of the graph even for very deep graphs.
+ */
+class DependencyGraph(private val rootTargets: Set<Label> = emptySet(), idToTargetInfo: Map<Label, TargetInfo> = emptyMap()) {
+  private val labelToId = HashMap<Label, Int>(idToTargetInfo.size * 2)
+  private val targetInfos: Array<TargetInfo?>
+  private val labels: Array<Label>
+  private val dependencies: AdjacencyList
+  private val reverseDependencies: AdjacencyList by lazy { dependencies.reversed(labels.size) }
 
   init {
-    idToDirectDependenciesIds =
-      idToTargetInfo.entries.associate { (id, target) ->
-        Pair(
-          id,
-          getDependencies(target),
-        )
+    val labelList = ArrayList<Label>(idToTargetInfo.size)
+    fun idOf(label: Label): Int = labelToId.getOrPut(label) { labelList.size.also { labelList.add(label) } }
+
+    idToTargetInfo.keys.forEach(::idOf)
+    val dependencyIdsPerTarget =
+      idToTargetInfo.values.map { target ->
+        getDependencies(target).map(::idOf).toIntArray()
       }
-    idToLazyTransitiveDependencies = createIdToLazyTransitiveDependenciesMap(idToTargetInfo)
+    labels = labelList.toTypedArray()
+    // targets come first, nodes after them are dependencies without a target info
+    targetInfos = arrayOfNulls<TargetInfo>(labels.size).also { idToTargetInfo.values.forEachIndexed { id, target -> it[id] = target } }
+    dependencies = AdjacencyList.of(dependencyIdsPerTarget, labels.size)
   }
 
-  private fun createIdToLazyTransitiveDependenciesMap(idToTargetInfo: Map<Label, TargetInfo>): Map<Label, Lazy<Set<TargetInfo>>> =
-    idToTargetInfo.mapValues { (_, targetInfo) ->
-      calculateLazyTransitiveDependenciesForTarget(targetInfo)
-    }
-
-  private fun calculateLazyTransitiveDependenciesForTarget(targetInfo: TargetInfo): Lazy<Set<TargetInfo>> =
-    lazy { calculateTransitiveDependenciesForTarget(targetInfo) }
+  fun allTargetsAtDepth(depth: Int, targets: Set<Label>): Set<TargetInfo> {
+    val maxDepth = if (depth < 0) Int.MAX_VALUE else depth
+    val result = HashSet<TargetInfo>()
+    traverse(knownIds(targets), dependencies, maxDepth) { id -> targetInfos[id]?.let(result::add) }
+    return result
+  }
 
-  private fun calculateTransitiveDependenciesForTarget(targetInfo: TargetInfo): Set<TargetInfo> {
-    val dependencies = getDependencies(targetInfo)
-    val strictlyTransitiveDependencies = calculateStrictlyTransitiveDependencies(dependencies)
-    val directDependencies = idsToTargetInfo(dependencies)
-    return strictlyTransitiveDependencies + directDependencies
+  fun transitiveDependenciesWithoutRootTargets(targetId: Label): Set<TargetInfo> {
+    val id = labelToId[targetId] ?: return emptySet()
+    val directDependenciesWithoutRootTargets =
+      dependencies.neighbours(id).filter { !rootTargets.contains(labels[it]) }.toIntArray()
+    val result = HashSet<TargetInfo>()
+    traverse(directDependenciesWithoutRootTargets, dependencies, Int.MAX_VALUE) { targetInfos[it]?.let(result::add) }
+    return result
   }
 
-  private fun calculateStrictlyTransitiveDependencies(dependencies: Set<Label>): Set<TargetInfo> =
-    dependencies
-      .flatMap {
-        idToLazyTransitiveDependencies[it]?.value.orEmpty()
-      }.toSet()
+  fun targetInfo(target: Label): TargetInfo? = labelToId[target]?.let { targetInfos[it] }
 
-  private fun idsToTargetInfo(dependencies: Set<Label>): Set<TargetInfo> = dependencies.mapNotNull(idToTargetInfo::get).toSet()
+  fun directDependencies(target: Label): List<Label> {
+    val id = labelToId[target] ?: return emptyList()
+    return dependencies.neighbours(id).map { labels[it] }
+  }
 
-  private fun directDependenciesIds(targetIds: Set<Label>) =
-    targetIds
-      .flatMap {
-        idToDirectDependenciesIds[it].orEmpty()
-      }.toSet()
+  /** The dependencies [transitiveDependenciesWithoutRootTargets] starts from. */
+  fun directDependenciesWithoutRootTargets(target: Label): List<Label> = directDependencies(target).filterNot(rootTargets::contains)
 
-  fun allTargetsAtDepth(depth: Int, targets: Set<Label>): Set<TargetInfo> {
-    if (depth < 0) {
-      return idsToTargetInfo(targets) + calculateStrictlyTransitiveDependencies(targets)
-    }
-
-    var currentDepth = depth
-    val searched: MutableSet<TargetInfo> = mutableSetOf()
-    var currentTargets = targets
+  /**
+   * Returns the given targets together with every target that depends on any of them, directly or transitively.
+   */
+  fun reverseTransitiveDependencies(targetIds: Set<Label>): Set<Label> {
+    val result = targetIds.toHashSet()
+    traverse(knownIds(targetIds), reverseDependencies, Int.MAX_VALUE) { result.add(labels[it]) }
+    return result
+  }
 
-    while (currentDepth > 0) {
-      searched.addAll(idsToTargetInfo(currentTargets))
-      currentTargets = directDependenciesIds(currentTargets)
-      currentDepth--
+  private fun knownIds(targets: Set<Label>): IntArray = targets.mapNotNull(labelToId::get).toIntArray()
+
+  /** Breadth-first traversal visiting every node at most once, up to [maxDepth] edges away from [startIds]. */
+  private inline fun traverse(
+    startIds: IntArray,
+    adjacency: AdjacencyList,
+    maxDepth: Int,
+    onVisit: (Int) -> Unit,
+  ) {
+    val buffers = TraversalBuffers.acquire(labels.size)
+    val visited = buffers.visited
+    val queue = buffers.queue
+    var queueEnd = 0
+    try {
+      for (id in startIds) {
+        if (markVisited(visited, id)) queue[queueEnd++] = id
+      }
+      var queueStart = 0
+      var depth = 0
+      while (queueStart < queueEnd) {
+        val levelEnd = queueEnd
+        while (queueStart < levelEnd) {
+          val id = queue[queueStart++]
+          onVisit(id)
+          if (depth < maxDepth) {
+            adjacency.forEachNeighbour(id) { neighbour ->
+              if (markVisited(visited, neighbour)) queue[queueEnd++] = neighbour
+            }
+          }
+        }
+        depth++
+      }
+    } finally {
+      // only the visited bits are cleared (also when the traversal fails), so the bitset can be reused
+      // without touching the whole array
+      for (i in 0 until queueEnd) {
+        val id = queue[i]
+        visited[id ushr 6] = visited[id ushr 6] and (1L shl id).inv()
+      }
+      buffers.release()
     }
-
-    searched.addAll(idsToTargetInfo(currentTargets))
-    return searched
   }
 
-  fun transitiveDependenciesWithoutRootTargets(targetId: Label): Set<TargetInfo> =
-    idToTargetInfo[targetId]
-      ?.let(::getDependencies)
-      .orEmpty()
-      .filter(::isNotARootTarget)
-      .flatMap(::collectTransitiveDependenciesAndAddTarget)
-      .toSet()
+  private fun markVisited(visited: LongArray, id: Int): Boolean {
+    val word = id ushr 6
+    val bit = 1L shl id
+    if (visited[word] and bit != 0L) return false
+    visited[word] = visited[word] or bit
+    return true
+  }
 
   private fun getDependencies(target: TargetInfo): Set<Label> =
     target.dependenciesList
@@ -81,17 +124,64 @@ class DependencyGraph(private val rootTargets: Set<Label> = emptySet(), private
       .map(Label::parse)
       .toSet()
 
-  private fun isNotARootTarget(targetId: Label): Boolean = !rootTargets.contains(targetId)
-
-  private fun collectTransitiveDependenciesAndAddTarget(targetId: Label): Set<TargetInfo> {
-    val target = idToTargetInfo[targetId]?.let(::setOf).orEmpty()
-    val dependencies =
-      idToLazyTransitiveDependencies[targetId]
-        ?.let(::setOf)
-        .orEmpty()
-        .map(Lazy<Set<TargetInfo>>::value)
-        .flatten()
-        .toSet()
-    return dependencies + target
+  /**
+   * Reused by the traversals of all graphs on the same thread, so a thread keeps a single pair of arrays
+   * (sized for the largest graph traversed on it) rather than one per graph. A traversal leaves the bitset cleared.
+   */
+  private class TraversalBuffers private constructor(nodeCount: Int) {
+    val visited = LongArray((nodeCount + 63) ushr 6)
+    val queue = IntArray(nodeCount)
+    private var inUse = false
+
+    fun release() {
+      inUse = false
+    }
+
+    companion object {
+      private val buffers = ThreadLocal<TraversalBuffers>()
+
+      fun acquire(nodeCount: Int): TraversalBuffers {
+        val current = buffers.get()
+        // a traversal started while another one on the same thread is in progress gets its own buffers
+        if (current?.inUse == true) return TraversalBuffers(nodeCount)
+        val reusable =
+          current?.takeIf { it.queue.size >= nodeCount }
+            ?: TraversalBuffers(nodeCount).also(buffers::set)
+        return reusable.also { it.inUse = true }
+      }
+    }
+  }
+
+  /** Neighbours of node `i` are `edges[offsets[i] until offsets[i + 1]]`. */
+  private class AdjacencyList(val offsets: IntArray, val edges: IntArray) {
+    inline fun forEachNeighbour(id: Int, action: (Int) -> Unit) {
+      for (i in offsets[id] until offsets[id + 1]) action(edges[i])
+    }
+
+    fun neighbours(id: Int): IntArray = edges.copyOfRange(offsets[id], offsets[id + 1])
+
+    fun reversed(nodeCount: Int): AdjacencyList {
+      val reversedOffsets = IntArray(nodeCount + 1)
+      edges.forEach { reversedOffsets[it + 1]++ }
+      for (i in 0 until nodeCount) reversedOffsets[i + 1] += reversedOffsets[i]
+      val reversedEdges = IntArray(edges.size)
+      val nextFree = reversedOffsets.copyOf()
+      for (id in 0 until nodeCount) {
+        forEachNeighbour(id) { reversedEdges[nextFree[it]++] = id }
+      }
+      return AdjacencyList(reversedOffsets, reversedEdges)
+    }
+
+    companion object {
+      /** [neighboursOfFirstNodes] holds the neighbours of nodes `0 until neighboursOfFirstNodes.size`, the rest has none. */
+      fun of(neighboursOfFirstNodes: List<IntArray>, nodeCount: Int): AdjacencyList {
+        val offsets = IntArray(nodeCount + 1)
+        neighboursOfFirstNodes.forEachIndexed { id, neighbours -> offsets[id + 1] = neighbours.size }
+        for (i in 0 until nodeCount) offsets[i + 1] += offsets[i]
+        val edges = IntArray(offsets[nodeCount])
+        neighboursOfFirstNodes.forEachIndexed { id, neighbours -> neighbours.copyInto(edges, offsets[id]) }
+        return AdjacencyList(offsets, edges)
+      }
+    }
   }
 }
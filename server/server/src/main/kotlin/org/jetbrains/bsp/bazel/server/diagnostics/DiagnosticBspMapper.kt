@@ -13,14 +13,22 @@ class DiagnosticBspMapper(private val workspaceRoot: Path) {
   fun createDiagnostics(diagnostics: List<Diagnostic>, originId: String?): List<PublishDiagnosticsParams> =
     diagnostics
       .groupBy { Pair(it.fileLocation, it.targetLabel) }
-      .map { kv ->
-        val bspDiagnostics = kv.value.map { createDiagnostic(it) }
-        val doc = TextDocumentIdentifier(toAbsoluteUri(kv.key.first))
-        val publishDiagnosticsParams =
-          PublishDiagnosticsParams(doc, BuildTargetIdentifier(kv.key.second.value), bspDiagnostics, true)
-        publishDiagnosticsParams.originId = originId
-        publishDiagnosticsParams
-      }
+      .map { kv -> createFileDiagnostics(kv.value, originId, reset = true) }
+
+  /** Maps the [diagnostics] of a single file of a single target. */
+  fun createFileDiagnostics(
+    diagnostics: List<Diagnostic>,
+    originId: String?,
+    reset: Boolean,
+  ): PublishDiagnosticsParams {
+    val first = diagnostics.first()
+    val bspDiagnostics = diagnostics.map { createDiagnostic(it) }
+    val doc = TextDocumentIdentifier(toAbsoluteUri(first.fileLocation))
+    val publishDiagnosticsParams =
+      PublishDiagnosticsParams(doc, BuildTargetIdentifier(first.targetLabel.value), bspDiagnostics, reset)
+    publishDiagnosticsParams.originId = originId
+    return publishDiagnosticsParams
+  }
 
   private fun createDiagnostic(it: Diagnostic): BspDiagnostic {
     val position = BspPosition(it.position.line - 1, it.position.character - 1)
@@ -3,54 +3,49 @@ package org.jetbrains.bsp.bazel.server.diagnostics
 import org.jetbrains.bsp.bazel.server.model.Label
 
 interface DiagnosticsParser {
-  fun parse(bazelOutput: String, target: Label): List<Diagnostic>
+  fun parse(bazelOutput: String, target: Label): List<Diagnostic> = parse(bazelOutput.lineSequence(), target).toList()
+
+  /**
+   * Diagnostics are yielded as soon as they are parsed, and the [bazelOutput] lines are read only as far as needed.
+   */
+  fun parse(bazelOutput: Sequence<String>, target: Label): Sequence<Diagnostic>
 }
 
 class DiagnosticsParserImpl : DiagnosticsParser {
-  override fun parse(bazelOutput: String, target: Label): List<Diagnostic> {
-    val output = prepareOutput(bazelOutput, target)
-    val diagnostics = collectDiagnostics(output)
-    return deduplicate(diagnostics)
-  }
-
-  private fun prepareOutput(bazelOutput: String, target: Label): Output {
-    val lines = bazelOutput.lines()
-    val relevantLines = lines.filterNot { line -> IgnoredLines.any { it.matches(line) } }
-    return Output(relevantLines, target)
-  }
-
-  private fun collectDiagnostics(output: Output): List<Diagnostic> {
-    val diagnostics = mutableListOf<Diagnostic>()
-    while (output.nonEmpty()) {
-      for (parser in Parsers) {
-        val result = parser.tryParse(output)
-        if (result.isNotEmpty()) {
-          diagnostics.addAll(result)
-          break
+  override fun parse(bazelOutput: Sequence<String>, target: Label): Sequence<Diagnostic> =
+    sequence {
+      var isOutputEmpty = true
+      val relevantLines =
+        bazelOutput
+          .onEach { isOutputEmpty = false }
+          .filterNot { line -> IgnoredLines.any { it.matches(line) } }
+      val output = Output(relevantLines, target)
+      val reported = HashSet<Triple<String, String, Position>>()
+
+      while (output.nonEmpty()) {
+        for (parser in Parsers) {
+          val result = parser.tryParse(output)
+          if (result.isNotEmpty()) {
+            output.discardFullOutput()
+            // deduplicate, keeping the first occurrence
+            yieldAll(result.filter { reported.add(Triple(it.fileLocation, it.message, it.position)) })
+            break
+          }
         }
       }
-    }
 
-    if (diagnostics.isEmpty()) {
-      diagnostics.add(
-        Diagnostic(
-          position = Position(0, 0),
-          message = output.fullOutput(),
-          fileLocation = "<unknown>",
-          targetLabel = output.targetLabel,
-        ),
-      )
+      if (reported.isEmpty() && !isOutputEmpty) {
+        yield(
+          Diagnostic(
+            position = Position(0, 0),
+            message = output.fullOutput(),
+            fileLocation = "<unknown>",
+            targetLabel = output.targetLabel,
+          ),
+        )
+      }
     }
 
-    return diagnostics.toList()
-  }
-
-  private fun deduplicate(parsedDiagnostics: List<Diagnostic>): List<Diagnostic> =
-    parsedDiagnostics
-      .groupBy { Triple(it.fileLocation, it.message, it.position) }
-      .values
-      .map { it.first() }
-
   companion object {
     private val Parsers =
       listOf(
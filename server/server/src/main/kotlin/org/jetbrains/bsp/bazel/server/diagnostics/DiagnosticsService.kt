@@ -1,14 +1,27 @@
 package org.jetbrains.bsp.bazel.server.diagnostics
 
+import ch.epfl.scala.bsp4j.BuildTargetIdentifier
 import ch.epfl.scala.bsp4j.PublishDiagnosticsParams
+import ch.epfl.scala.bsp4j.TextDocumentIdentifier
 import org.jetbrains.bsp.bazel.server.model.Label
 import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Remembers the files with diagnostics published by any build together with the origin id they were published with,
+ * so that a later build can clear them under that origin id. Clients show diagnostics per build task, so every build
+ * publishes all its diagnostics again - only files whose diagnostics did not change are skipped, and only within
+ * the same build.
+ */
 class DiagnosticsService(
   workspaceRoot: Path,
   private val parser: DiagnosticsParser = DiagnosticsParserImpl(),
   private val mapper: DiagnosticBspMapper = DiagnosticBspMapper(workspaceRoot),
 ) {
+  data class DocumentInTarget(val document: TextDocumentIdentifier, val target: BuildTargetIdentifier)
+
+  private val publishedDiagnostics = ConcurrentHashMap.newKeySet<Pair<DocumentInTarget, String?>>()
+
   fun extractDiagnostics(
     bazelOutput: String,
     targetLabel: Label,
@@ -18,4 +31,72 @@ class DiagnosticsService(
     val events = mapper.createDiagnostics(parsedDiagnostics, originId)
     return events
   }
+
+  /**
+   * Parses the [bazelOutput] of an action (reading its lines one by one, so the whole output is never held in memory)
+   * and yields the diagnostics of each file as soon as the compiler moves on to another file, unless they are the same
+   * as the ones already published in this build (e.g. by an action of the same target in another configuration).
+   * A file reported again later in the output gets its further diagnostics appended (published with `reset = false`).
+   *
+   * [reported] holds the hashes of the diagnostics published for each file in this build, all files with diagnostics
+   * are added to it, which is also needed by [staleDiagnostics] at the end of the build.
+   */
+  fun changedDiagnostics(
+    bazelOutput: Sequence<String>,
+    targetLabel: Label,
+    originId: String?,
+    reported: MutableMap<DocumentInTarget, Int>,
+  ): Sequence<PublishDiagnosticsParams> {
+    // hashes of the diagnostics of each file in this action, combined run by run
+    val reportedInAction = HashMap<DocumentInTarget, Int>()
+    return parser
+      .parse(bazelOutput, targetLabel)
+      .runsOfSameFile()
+      .mapNotNull { run ->
+        val event = mapper.createFileDiagnostics(run, originId, reset = true)
+        val key = DocumentInTarget(event.textDocument, event.buildTarget)
+        val runHash = event.diagnostics.hashCode()
+        val previousInAction = reportedInAction[key]
+        val hash = previousInAction?.let { 31 * it + runHash } ?: runHash
+        reportedInAction[key] = hash
+        publishedDiagnostics.add(key to originId)
+        when {
+          previousInAction != null -> event.apply { reset = false }.also { reported[key] = hash }
+          reported.put(key, hash) != hash -> event
+          else -> null
+        }
+      }
+  }
+
+  // consecutive diagnostics of the same file, compilers report the diagnostics of a file together
+  private fun Sequence<Diagnostic>.runsOfSameFile(): Sequence<List<Diagnostic>> =
+    sequence {
+      var run = ArrayList<Diagnostic>()
+      for (diagnostic in this@runsOfSameFile) {
+        val last = run.lastOrNull()
+        if (last != null && (last.fileLocation != diagnostic.fileLocation || last.targetLabel != diagnostic.targetLabel)) {
+          yield(run)
+          run = ArrayList()
+        }
+        run.add(diagnostic)
+      }
+      if (run.isNotEmpty()) yield(run)
+    }
+
+  /**
+   * Returns the (empty) diagnostics clearing the files of [builtTargets] published by an earlier build (under its
+   * origin id), or published by this build but not [reported] anymore.
+   */
+  fun staleDiagnostics(
+    builtTargets: Set<Label>,
+    reported: Set<DocumentInTarget>,
+    originId: String?,
+  ): List<PublishDiagnosticsParams> =
+    publishedDiagnostics
+      .filter { (key, publishedOriginId) ->
+        Label.parse(key.target.uri) in builtTargets && (publishedOriginId != originId || key !in reported)
+      }.filter { publishedDiagnostics.remove(it) }
+      .map { (key, publishedOriginId) ->
+        PublishDiagnosticsParams(key.document, key.target, emptyList(), true).apply { this.originId = publishedOriginId }
+      }
 }
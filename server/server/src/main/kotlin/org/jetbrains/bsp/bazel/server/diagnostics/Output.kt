@@ -2,22 +2,62 @@ package org.jetbrains.bsp.bazel.server.diagnostics
 
 import org.jetbrains.bsp.bazel.server.model.Label
 
-class Output(private val lines: List<String>, val targetLabel: Label) {
-  private var pointer = 0
+/**
+ * Output lines consumed by the parsers. The lines are read lazily, so only the ones peeked at are kept in memory.
+ *
+ * The consumed lines are retained for [fullOutput] until [discardFullOutput] is called. Once they exceed
+ * [MAX_FULL_OUTPUT_LENGTH] characters, the rest of the output is only counted and replaced by a truncation marker.
+ */
+class Output(lines: Sequence<String>, val targetLabel: Label) {
+  constructor(lines: List<String>, targetLabel: Label) : this(lines.asSequence(), targetLabel)
 
-  fun nonEmpty(): Boolean = pointer < lines.size
+  private val remaining = lines.iterator()
+  private val window = ArrayDeque<String>()
+  private var fullOutput: StringBuilder? = StringBuilder()
+  private var truncatedLines = 0L
 
-  fun peek(): String? = lines.getOrNull(pointer)
+  fun nonEmpty(): Boolean = fill(1) > 0
 
-  fun take(): String = lines[pointer++]
+  fun peek(): String? = if (nonEmpty()) window.first() else null
 
-  fun peek(limit: Int): List<String> = lines.subList(pointer, (pointer + limit).coerceAtMost(lines.size))
+  fun take(): String = window.removeFirstOrNull()?.also(::retain) ?: remaining.next().also(::retain)
 
-  fun take(count: Int): List<String> = peek(count).also { pointer += count }
+  fun peek(limit: Int): List<String> = window.take(fill(limit))
+
+  fun take(count: Int): List<String> = peek(count).onEach { take() }
 
   fun tryTake(): String? = peek()?.also { take() }
 
   fun tryTake(regex: Regex): MatchResult? = peek()?.let { regex.matchEntire(it) }?.also { take() }
 
-  fun fullOutput(): String = lines.joinToString(System.lineSeparator())
+  fun fullOutput(): String {
+    val output = fullOutput?.toString() ?: return ""
+    return if (truncatedLines == 0L) output else "$output\n... ($truncatedLines more lines truncated)"
+  }
+
+  fun discardFullOutput() {
+    fullOutput = null
+  }
+
+  /** Reads up to [count] lines into the window, returns how many lines are available there. */
+  private fun fill(count: Int): Int {
+    while (window.size < count && remaining.hasNext()) {
+      window.addLast(remaining.next())
+    }
+    return minOf(window.size, count)
+  }
+
+  private fun retain(line: String) {
+    val output = fullOutput ?: return
+    if (truncatedLines > 0 || output.length + line.length > MAX_FULL_OUTPUT_LENGTH) {
+      truncatedLines++
+      return
+    }
+    if (output.isNotEmpty()) output.append(System.lineSeparator())
+    output.append(line)
+  }
+
+  companion object {
+    const val MAX_FULL_OUTPUT_LENGTH = 1 shl 20
+  }
 }
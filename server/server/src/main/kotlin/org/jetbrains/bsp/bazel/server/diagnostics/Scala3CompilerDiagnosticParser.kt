@@ -18,7 +18,10 @@ object Scala3CompilerDiagnosticParser : Parser {
   private val colorRegex = "\u001b\\[1A\u001b\\[K|\u001B\\[[;\\d]*m".toRegex()
 
   fun tryTake(output: Output, regex: Regex): MatchResult? =
-    output.peek()?.let { regex.matchEntire(it.replace(colorRegex, "")) }?.also { output.take() }
+    output.peek()?.let { regex.matchEntire(it.withoutColors()) }?.also { output.take() }
+
+  // most lines have no colors, replacing them would only copy the line
+  private fun String.withoutColors(): String = if (contains('\u001b')) replace(colorRegex, "") else this
 
   fun tryParseOne(output: Output): Diagnostic? =
     tryTake(output, DiagnosticHeader)
@@ -35,7 +38,7 @@ object Scala3CompilerDiagnosticParser : Parser {
   private fun collectMessageLines(header: String, output: Output): List<String> {
     val lines = mutableListOf<String>()
 
-    fun String.cleanLine(): String = this.replace(colorRegex, "").trim()
+    fun String.cleanLine(): String = this.withoutColors().trim()
 
     // skip lines with numbers which show the source and skip the next ^^^^ line
     if (output.peek()?.cleanLine()?.startsWith('|') == false) output.take(2)
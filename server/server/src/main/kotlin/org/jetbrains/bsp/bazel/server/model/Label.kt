@@ -1,21 +1,29 @@
 package org.jetbrains.bsp.bazel.server.model
 
 import com.fasterxml.jackson.annotation.JsonValue
+import com.google.common.collect.MapMaker
 import org.jetbrains.bsp.bazel.info.BspTargetInfo
+import java.util.concurrent.ConcurrentMap
 
-// Labels are normalized to always start with "@//"
-@JvmInline
-value class Label private constructor(
+// Labels are normalized to always start with "@//".
+// Labels are interned by their normalized value (see [Label.parse]), so the labels of all targets, dependencies
+// and libraries share one instance while any of them is in use. The components are split on their first use.
+class Label private constructor(
   @JsonValue val value: String,
 ) {
+  // written at most once with equal values, so a racy initialization is harmless
+  private var cachedRepoName: String? = null
+  private var cachedTargetPath: String? = null
+  private var cachedTargetName: String? = null
+
   val targetName: String
-    get() = value.substringAfterLast(":", "")
+    get() = cachedTargetName ?: value.substringAfterLast(":", "").also { cachedTargetName = it }
 
   val targetPath: String
-    get() = value.substringBeforeLast(":", "").substringAfterLast("//")
+    get() = cachedTargetPath ?: value.substringBeforeLast(":", "").substringAfterLast("//").also { cachedTargetPath = it }
 
   val repoName: String
-    get() = value.substringBefore("//").removePrefix("@")
+    get() = cachedRepoName ?: value.substringBefore("//").removePrefix("@").also { cachedRepoName = it }
 
   val isMainWorkspace: Boolean
     get() = repoName.isEmpty()
@@ -27,19 +35,30 @@ value class Label private constructor(
       "external/$repoName/$targetPath"
     }
 
+  override fun equals(other: Any?): Boolean = this === other || other is Label && value == other.value
+
+  override fun hashCode(): Int = value.hashCode()
+
   override fun toString(): String = value
 
   companion object {
+    // weak values, so the labels of a previous sync (e.g. of deleted targets) are collected once nothing refers to them
+    private val labels: ConcurrentMap<String, Label> = MapMaker().weakValues().makeMap()
+
     fun parse(value: String): Label {
-      val stripped = value.trimStart('@')
-      val normalized =
-        if (!value.contains("//")) {
-          stripped // special case for synthetic/fake targets like "scala-compiler-2.12.14.jar"
-        } else {
-          "@$stripped"
-        }
-      return Label(normalized.intern())
+      val normalized = normalize(value)
+      labels[normalized]?.let { return it }
+      val label = Label(normalized)
+      return labels.putIfAbsent(normalized, label) ?: label
     }
+
+    // an already normalized value is returned as it is, so looking up a known label allocates nothing
+    private fun normalize(value: String): String =
+      when {
+        !value.contains("//") -> value.trimStart('@') // special case for synthetic/fake targets like "scala-compiler-2.12.14.jar"
+        value.startsWith('@') && !value.startsWith("@@") -> value
+        else -> "@" + value.trimStart('@')
+      }
   }
 }
 
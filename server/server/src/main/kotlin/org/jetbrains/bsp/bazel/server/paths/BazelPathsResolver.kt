@@ -3,17 +3,18 @@ package org.jetbrains.bsp.bazel.server.paths
 import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelInfo
 import org.jetbrains.bsp.bazel.info.BspTargetInfo.FileLocation
 import java.net.URI
-import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.util.concurrent.ConcurrentHashMap
-import kotlin.io.path.exists
 import kotlin.io.path.toPath
 
 class BazelPathsResolver(private val bazelInfo: BazelInfo) {
   private val uris = ConcurrentHashMap<Path, URI>()
   private val paths = ConcurrentHashMap<FileLocation, Path>()
 
+  /** Existence checks made during a sync, cleared together with the resolved paths. */
+  val fileSystemSnapshot = FileSystemSnapshot()
+
   fun resolveUri(path: Path): URI = uris.computeIfAbsent(path, Path::toUri)
 
   fun unresolvedWorkspaceRoot(): Path = bazelInfo.workspaceRoot
@@ -23,7 +24,9 @@ class BazelPathsResolver(private val bazelInfo: BazelInfo) {
   fun resolveUris(fileLocations: List<FileLocation>, shouldFilterExisting: Boolean = false): List<URI> =
     fileLocations
       .map(::resolveUri)
-      .filter { !shouldFilterExisting || it.toPath().exists() }
+      .filter { !shouldFilterExisting || exists(it.toPath()) }
+
+  fun exists(path: Path): Boolean = fileSystemSnapshot.exists(path)
 
   fun resolvePaths(fileLocations: List<FileLocation>): List<Path> = fileLocations.map(::resolve)
 
@@ -41,7 +44,7 @@ class BazelPathsResolver(private val bazelInfo: BazelInfo) {
 
   private fun isAbsolute(fileLocation: FileLocation): Boolean {
     val relative = fileLocation.relativePath
-    return relative.startsWith("/") && Files.exists(Paths.get(relative))
+    return relative.startsWith("/") && exists(Paths.get(relative))
   }
 
   private fun resolveAbsolute(fileLocation: FileLocation): Path = Paths.get(fileLocation.relativePath)
@@ -90,5 +93,6 @@ class BazelPathsResolver(private val bazelInfo: BazelInfo) {
   fun clear() {
     uris.clear()
     paths.clear()
+    fileSystemSnapshot.clear()
   }
 }
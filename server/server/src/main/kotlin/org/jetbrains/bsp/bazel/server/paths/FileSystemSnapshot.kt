@@ -0,0 +1,98 @@
+package org.jetbrains.bsp.bazel.server.paths
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.NotDirectoryException
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Answers existence checks from directory listings, kept until [clear] (i.e. for a single sync).
+ *
+ * The sources of a target are usually in a handful of directories, so listing each directory once replaces
+ * a `stat` per file, which matters on network file systems. An entry is considered to exist if it is listed,
+ * so a dangling symbolic link exists here, unlike for [Files.exists].
+ * A file whose modification time was read by [lastModifiedMillis] is answered from that instead of a listing.
+ */
+class FileSystemSnapshot {
+  // names of the entries of every listed directory, empty for a directory which does not exist
+  private val listings = ConcurrentHashMap<Path, Set<String>>()
+  private val modificationTimes = ConcurrentHashMap<Path, Long>()
+  private val checks = AtomicLong()
+  private val fileSystemCalls = AtomicLong()
+
+  fun exists(path: Path): Boolean {
+    checks.incrementAndGet()
+    modificationTimes[path]?.let { return it != MISSING }
+    val parent = path.parent
+    val name = path.fileName?.toString()
+    if (parent == null || name == null || name == "." || name == "..") return stat(path)
+    val listing = listing(parent)
+    return if (listing === UNLISTABLE) stat(path) else name in listing
+  }
+
+  /** The modification time of [path], or `null` if it does not exist. Also counted as an existence check. */
+  fun lastModifiedMillis(path: Path): Long? {
+    checks.incrementAndGet()
+    val millis = modificationTimes[path] ?: readLastModifiedMillis(path).let { modificationTimes.putIfAbsent(path, it) ?: it }
+    return millis.takeUnless { it == MISSING }
+  }
+
+  private fun readLastModifiedMillis(path: Path): Long {
+    fileSystemCalls.incrementAndGet()
+    return try {
+      Files.readAttributes(path, BasicFileAttributes::class.java).lastModifiedTime().toMillis()
+    } catch (_: IOException) {
+      MISSING
+    }
+  }
+
+  private fun stat(path: Path): Boolean {
+    fileSystemCalls.incrementAndGet()
+    return Files.exists(path)
+  }
+
+  // listed outside of the map's lock, as listing a directory may block for long - a directory listed twice is harmless
+  private fun listing(directory: Path): Set<String> {
+    listings[directory]?.let { return it }
+    val listing = list(directory)
+    return listings.putIfAbsent(directory, listing) ?: listing
+  }
+
+  private fun list(directory: Path): Set<String> {
+    fileSystemCalls.incrementAndGet()
+    return try {
+      Files.newDirectoryStream(directory).use { entries -> entries.mapTo(HashSet()) { it.fileName.toString() } }
+    } catch (_: NoSuchFileException) {
+      emptySet()
+    } catch (_: NotDirectoryException) {
+      emptySet()
+    } catch (_: IOException) {
+      // e.g. a directory which can be traversed but not read, its entries are checked one by one
+      UNLISTABLE
+    }
+  }
+
+  /** The number of existence checks answered since the last [clear]. */
+  val existenceChecks: Long
+    get() = checks.get()
+
+  /** The number of file system calls (directory listings and single checks) made to answer them. */
+  val fileSystemCallsMade: Long
+    get() = fileSystemCalls.get()
+
+  fun clear() {
+    listings.clear()
+    modificationTimes.clear()
+    checks.set(0)
+    fileSystemCalls.set(0)
+  }
+
+  companion object {
+    private val UNLISTABLE: Set<String> = HashSet()
+    private const val MISSING = Long.MIN_VALUE
+  }
+}
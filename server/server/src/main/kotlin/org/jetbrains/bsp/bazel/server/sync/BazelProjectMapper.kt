@@ -1,7 +1,7 @@
 package org.jetbrains.bsp.bazel.server.sync
 
 import com.google.common.hash.Hashing
-import com.google.devtools.build.lib.view.proto.Deps
+import io.opentelemetry.api.trace.Span
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
@@ -10,8 +10,6 @@ import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelInfo
 import org.jetbrains.bsp.bazel.info.BspTargetInfo.FileLocation
 import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
 import org.jetbrains.bsp.bazel.logger.BspClientLogger
-import org.jetbrains.bsp.bazel.server.benchmark.tracer
-import org.jetbrains.bsp.bazel.server.benchmark.use
 import org.jetbrains.bsp.bazel.server.dependencygraph.DependencyGraph
 import org.jetbrains.bsp.bazel.server.model.GoLibrary
 import org.jetbrains.bsp.bazel.server.model.Label
@@ -36,11 +34,7 @@ import java.net.URI
 import java.nio.charset.StandardCharsets
 import java.nio.file.Path
 import java.nio.file.Paths
-import java.util.concurrent.ConcurrentHashMap
-import kotlin.io.path.exists
-import kotlin.io.path.inputStream
 import kotlin.io.path.name
-import kotlin.io.path.notExists
 import kotlin.io.path.toPath
 
 class BazelProjectMapper(
@@ -49,185 +43,228 @@ class BazelProjectMapper(
   private val targetTagsResolver: TargetTagsResolver,
   private val kotlinAndroidModulesMerger: KotlinAndroidModulesMerger,
   private val bspClientLogger: BspClientLogger,
+  private val jdepsCache: JdepsCache,
 ) {
-  private fun <T> measure(description: String, body: () -> T): T = tracer.spanBuilder(description).use { body() }
-
-  private fun <T> measureIf(
-    description: String,
-    predicate: () -> Boolean,
-    ifFalse: T,
-    body: () -> T,
-  ): T =
-    if (predicate()) {
-      measure(description, body)
-    } else {
-      ifFalse
-    }
+  private val moduleCache = IncrementalModuleCache(bazelPathsResolver.fileSystemSnapshot)
 
+  /**
+   * Every step of the mapping is a [PhaseGraph] phase declaring the phases it reads from,
+   * so independent steps (e.g. the per-language library mappers) run concurrently.
+   */
   fun createProject(
     targets: Map<Label, TargetInfo>,
     rootTargets: Set<Label>,
     allTargetNames: List<Label>,
     workspaceContext: WorkspaceContext,
     bazelInfo: BazelInfo,
-  ): Project {
-    languagePluginsService.prepareSync(targets.values.asSequence())
-    val dependencyGraph =
-      measure("Build dependency tree") {
-        DependencyGraph(rootTargets, targets)
-      }
-    val targetsToImport =
-      measure("Select targets") {
-        selectTargetsToImport(workspaceContext, rootTargets, dependencyGraph)
-      }
-    val interfacesAndBinariesFromTargetsToImport =
-      measure("Collect interfaces and classes from targets to import") {
-        collectInterfacesAndClasses(targetsToImport)
-      }
-    val targetsAsLibraries =
-      measure("Targets as libraries") {
-        targets - targetsToImport.map { Label.parse(it.id) }.toSet()
-      }
-    val outputJarsLibraries =
-      measure("Create output jars libraries") {
-        calculateOutputJarsLibraries(targetsToImport, workspaceContext)
-      }
-    val annotationProcessorLibraries =
-      measure("Create AP libraries") {
-        annotationProcessorLibraries(targetsToImport)
-      }
-    val kotlinStdlibsMapper =
-      measure("Create kotlin stdlibs") {
-        calculateKotlinStdlibsMapper(targetsToImport)
-      }
-    val kotlincPluginLibrariesMapper =
-      measure("Create kotlinc plugin libraries") {
-        calculateKotlincPluginLibrariesMapper(targetsToImport)
-      }
-    val scalaLibrariesMapper =
-      measure("Create scala libraries") {
-        calculateScalaLibrariesMapper(targetsToImport)
-      }
-    val androidLibrariesMapper =
-      measure("Create android libraries") {
-        calculateAndroidLibrariesMapper(targetsToImport, workspaceContext)
-      }
-    val goLibrariesMapper =
-      measure("Create go libraries") {
-        calculateGoLibrariesMapper(targetsToImport)
-      }
-    val librariesFromTransitiveCompileTimeJars =
-      measure("Libraries from transitive compile-time jars") {
-        createLibrariesFromTransitiveCompileTimeJars(
-          targetsToImport,
-          workspaceContext,
-          interfacesAndBinariesFromTargetsToImport,
-          targets,
-        )
-      }
-    val librariesFromDeps =
-      measure("Merge libraries from deps") {
-        concatenateMaps(
+    build: Boolean = false,
+  ): Project =
+    PhaseGraph.run("project.mapping") {
+      val preparedSync =
+        phase("Prepare language plugins") {
+          languagePluginsService.prepareSync(targets.values.asSequence())
+        }
+      val dependencyGraph =
+        phase("Build dependency tree") {
+          DependencyGraph(rootTargets, targets)
+        }
+      val moduleCacheStarted =
+        phase("Find targets changed since the last sync", dependencyGraph) {
+          moduleCache.startSync(targets, dependencyGraph.value, workspaceContext, build)
+        }
+      val targetsToImport =
+        phase("Select targets", dependencyGraph) {
+          // materialized once, so the phases below do not re-run the selection
+          selectTargetsToImport(workspaceContext, rootTargets, dependencyGraph.value).toList().asSequence()
+        }
+      val interfacesAndBinariesFromTargetsToImport =
+        phase("Collect interfaces and classes from targets to import", targetsToImport) {
+          collectInterfacesAndClasses(targetsToImport.value)
+        }
+      val targetsAsLibraries =
+        phase("Targets as libraries", targetsToImport) {
+          targets - targetsToImport.value.map { Label.parse(it.id) }.toSet()
+        }
+      val outputJarsLibraries =
+        phase("Create output jars libraries", targetsToImport) {
+          calculateOutputJarsLibraries(targetsToImport.value, workspaceContext)
+        }
+      val annotationProcessorLibraries =
+        phase("Create AP libraries", targetsToImport) {
+          annotationProcessorLibraries(targetsToImport.value)
+        }
+      val kotlinStdlibsMapper =
+        phase("Create kotlin stdlibs", targetsToImport) {
+          calculateKotlinStdlibsMapper(targetsToImport.value)
+        }
+      val kotlincPluginLibrariesMapper =
+        phase("Create kotlinc plugin libraries", targetsToImport) {
+          calculateKotlincPluginLibrariesMapper(targetsToImport.value)
+        }
+      val scalaLibrariesMapper =
+        phase("Create scala libraries", targetsToImport, preparedSync) {
+          calculateScalaLibrariesMapper(targetsToImport.value)
+        }
+      val androidLibrariesMapper =
+        phase("Create android libraries", targetsToImport) {
+          calculateAndroidLibrariesMapper(targetsToImport.value, workspaceContext)
+        }
+      val goLibrariesMapper =
+        phase("Create go libraries", targetsToImport) {
+          calculateGoLibrariesMapper(targetsToImport.value)
+        }
+      val librariesFromTransitiveCompileTimeJars =
+        phase("Libraries from transitive compile-time jars", targetsToImport, interfacesAndBinariesFromTargetsToImport) {
+          createLibrariesFromTransitiveCompileTimeJars(
+            targetsToImport.value,
+            workspaceContext,
+            interfacesAndBinariesFromTargetsToImport.value,
+            targets,
+          )
+        }
+      val librariesFromDeps =
+        phase(
+          "Merge libraries from deps",
           outputJarsLibraries,
           annotationProcessorLibraries,
           kotlinStdlibsMapper,
           kotlincPluginLibrariesMapper,
           scalaLibrariesMapper,
           androidLibrariesMapper,
-        )
-      }
-    val librariesFromDepsAndTargets =
-      measure("Libraries from targets and deps") {
-        createLibraries(targetsAsLibraries) +
-          librariesFromDeps.values
-            .flatten()
-            .distinct()
-            .associateBy { it.label }
-      }
-    val extraLibrariesFromJdeps =
-      measure("Libraries from jdeps") {
-        jdepsLibraries(
-          targetsToImport.associateBy { Label.parse(it.id) },
+        ) {
+          concatenateMaps(
+            outputJarsLibraries.value,
+            annotationProcessorLibraries.value,
+            kotlinStdlibsMapper.value,
+            kotlincPluginLibrariesMapper.value,
+            scalaLibrariesMapper.value,
+            androidLibrariesMapper.value,
+          )
+        }
+      val librariesFromDepsAndTargets =
+        phase("Libraries from targets and deps", targetsAsLibraries, librariesFromDeps) {
+          createLibraries(targetsAsLibraries.value) +
+            librariesFromDeps.value.values
+              .flatten()
+              .distinct()
+              .associateBy { it.label }
+        }
+      val extraLibrariesFromJdeps =
+        phase(
+          "Libraries from jdeps",
+          targetsToImport,
           librariesFromDeps,
           librariesFromDepsAndTargets,
           interfacesAndBinariesFromTargetsToImport,
-        )
-      }
-    val workspaceRoot = bazelPathsResolver.workspaceRoot()
-    val modulesFromBazel =
-      measure("Create modules") {
-        createModules(
+        ) {
+          jdepsLibraries(
+            targetsToImport.value.associateBy { Label.parse(it.id) },
+            librariesFromDeps.value,
+            librariesFromDepsAndTargets.value,
+            interfacesAndBinariesFromTargetsToImport.value,
+          )
+        }
+      val modulesFromBazel =
+        phase(
+          "Create modules",
           targetsToImport,
           dependencyGraph,
-          concatenateMaps(
-            librariesFromDeps,
-            extraLibrariesFromJdeps,
-            librariesFromTransitiveCompileTimeJars,
-          ),
-        )
-      }
-    val mergedModulesFromBazel =
-      measure("Merge Kotlin Android modules") {
-        kotlinAndroidModulesMerger.mergeKotlinAndroidModules(modulesFromBazel, workspaceContext)
-      }
-    val sourceToTarget =
-      measure("Build reverse sources") {
-        buildReverseSourceMapping(mergedModulesFromBazel)
-      }
-    val librariesToImport =
-      measure("Merge all libraries") {
-        librariesFromDepsAndTargets +
-          extraLibrariesFromJdeps.values.flatten().associateBy { it.label } +
-          librariesFromTransitiveCompileTimeJars.values.flatten().associateBy { it.label }
-      }
-    val goLibrariesToImport =
-      measureIf(
-        description = "Merge all Go libraries",
-        predicate = { workspaceContext.isGoEnabled },
-        ifFalse = emptyMap(),
-      ) {
-        goLibrariesMapper.values
-          .flatten()
-          .distinct()
-          .associateBy { it.label } +
-          createGoLibraries(targetsAsLibraries)
-      }
-    val invalidTargets =
-      measure("Save invalid target labels") {
-        removeDotBazelBspTarget(allTargetNames) - targetsToImport.map { Label.parse(it.id) }.toSet()
-      }
-    val rustExternalTargetsToImport =
-      measureIf(
-        description = "Select external Rust targets",
-        predicate = { workspaceContext.isRustEnabled },
-        ifFalse = emptySequence(),
-      ) {
-        selectRustExternalTargetsToImport(rootTargets, dependencyGraph)
-      }
-    val rustExternalModules =
-      measureIf(
-        description = "Create Rust external modules",
-        predicate = { workspaceContext.isRustEnabled },
-        ifFalse = emptySequence(),
+          librariesFromDeps,
+          extraLibrariesFromJdeps,
+          librariesFromTransitiveCompileTimeJars,
+          moduleCacheStarted,
+          preparedSync,
+        ) {
+          createModules(
+            targetsToImport.value,
+            dependencyGraph.value,
+            concatenateMaps(
+              librariesFromDeps.value,
+              extraLibrariesFromJdeps.value,
+              librariesFromTransitiveCompileTimeJars.value,
+            ),
+            moduleCache,
+          )
+        }
+      val mergedModulesFromBazel =
+        phase("Merge Kotlin Android modules", modulesFromBazel) {
+          kotlinAndroidModulesMerger.mergeKotlinAndroidModules(modulesFromBazel.value, workspaceContext)
+        }
+      val sourceToTarget =
+        phase("Build reverse sources", mergedModulesFromBazel) {
+          buildReverseSourceMapping(mergedModulesFromBazel.value)
+        }
+      val librariesToImport =
+        phase("Merge all libraries", librariesFromDepsAndTargets, extraLibrariesFromJdeps, librariesFromTransitiveCompileTimeJars) {
+          librariesFromDepsAndTargets.value +
+            extraLibrariesFromJdeps.value.values.flatten().associateBy { it.label } +
+            librariesFromTransitiveCompileTimeJars.value.values.flatten().associateBy { it.label }
+        }
+      val goLibrariesToImport =
+        phaseIf(
+          "Merge all Go libraries",
+          predicate = workspaceContext.isGoEnabled,
+          ifFalse = emptyMap(),
+          goLibrariesMapper,
+          targetsAsLibraries,
+        ) {
+          goLibrariesMapper.value.values
+            .flatten()
+            .distinct()
+            .associateBy { it.label } +
+            createGoLibraries(targetsAsLibraries.value)
+        }
+      val invalidTargets =
+        phase("Save invalid target labels", targetsToImport) {
+          removeDotBazelBspTarget(allTargetNames) - targetsToImport.value.map { Label.parse(it.id) }.toSet()
+        }
+      val rustExternalTargetsToImport =
+        phaseIf(
+          "Select external Rust targets",
+          predicate = workspaceContext.isRustEnabled,
+          ifFalse = emptySequence(),
+          dependencyGraph,
+        ) {
+          selectRustExternalTargetsToImport(rootTargets, dependencyGraph.value)
+        }
+      val rustExternalModules =
+        phaseIf(
+          "Create Rust external modules",
+          predicate = workspaceContext.isRustEnabled,
+          ifFalse = emptySequence(),
+          rustExternalTargetsToImport,
+          dependencyGraph,
+          librariesFromDeps,
+          preparedSync,
+        ) {
+          createRustExternalModules(rustExternalTargetsToImport.value, dependencyGraph.value, librariesFromDeps.value).toList().asSequence()
+        }
+      phase(
+        "Create project",
+        mergedModulesFromBazel,
+        rustExternalModules,
+        sourceToTarget,
+        librariesToImport,
+        goLibrariesToImport,
+        invalidTargets,
       ) {
-        createRustExternalModules(rustExternalTargetsToImport, dependencyGraph, librariesFromDeps)
+        val allModules = mergedModulesFromBazel.value + rustExternalModules.value
+        val nonModuleTargetIds =
+          removeDotBazelBspTarget(targets.keys) - allModules.map { it.label }.toSet() - librariesToImport.value.keys
+        val nonModuleTargets = createNonModuleTargets(targets.filterKeys { nonModuleTargetIds.contains(it) && it.isMainWorkspace })
+
+        Project(
+          bazelPathsResolver.workspaceRoot(),
+          allModules.toList(),
+          sourceToTarget.value,
+          librariesToImport.value,
+          goLibrariesToImport.value,
+          invalidTargets.value,
+          nonModuleTargets,
+          bazelInfo.release,
+        )
       }
-    val allModules = mergedModulesFromBazel + rustExternalModules
-
-    val nonModuleTargetIds = removeDotBazelBspTarget(targets.keys) - allModules.map { it.label }.toSet() - librariesToImport.keys
-    val nonModuleTargets = createNonModuleTargets(targets.filterKeys { nonModuleTargetIds.contains(it) && it.isMainWorkspace })
-
-    return Project(
-      workspaceRoot,
-      allModules.toList(),
-      sourceToTarget,
-      librariesToImport,
-      goLibrariesToImport,
-      invalidTargets,
-      nonModuleTargets,
-      bazelInfo.release,
-    )
-  }
+    }
 
   private fun <K, V> concatenateMaps(vararg maps: Map<K, List<V>>): Map<K, List<V>> =
     maps
@@ -293,7 +330,7 @@ class BazelProjectMapper(
       kotlinStdlibsJars
         .map { it.toPath() }
         .map { it.parent.resolve(it.fileName.toString().replace(".jar", "-sources.jar")) }
-        .filter { it.exists() }
+        .filter(bazelPathsResolver::exists)
         .map { it.toUri() }
         .toSet()
 
@@ -436,6 +473,7 @@ class BazelProjectMapper(
     interfacesAndBinariesFromTargetsToImport: Map<Label, Set<URI>>,
   ): Map<Label, List<Library>> {
     val targetsToJdepsJars = getAllJdepsDependencies(targetsToImport, libraryDependencies, librariesToImport)
+    jdepsCache.store()
     val libraryNameToLibraryValueMap = HashMap<Label, Library>()
     return targetsToJdepsJars.mapValues { target ->
       val interfacesAndBinariesFromTarget =
@@ -480,98 +518,46 @@ class BazelProjectMapper(
         .flatten()
         .toSet()
 
-    return runBlocking(Dispatchers.Default) {
-      val outputJarsFromTransitiveDepsCache = ConcurrentHashMap<Label, Set<Path>>()
-      targetsToImport.values
-        .filter { targetSupportsJdeps(it) }
-        .map { target ->
-          async {
-            val targetLabel = Label.parse(target.id)
-            val jarsFromJdeps = jdepsJars.getValue(targetLabel)
-            if (jarsFromJdeps.isEmpty()) {
-              return@async targetLabel to emptySet()
-            }
+    val targetsWithJdepsJars = jdepsJars.filterValues { it.isNotEmpty() }
+    val transitiveJars =
+      TransitiveJarsIndex(
+        jars = allJdepsJars,
+        roots = targetsWithJdepsJars.keys,
+        ownJars = { targetOrLibrary -> ownJars(targetOrLibrary, targetsToImport, librariesToImport) },
+        dependencies = { targetOrLibrary ->
+          targetsToImport[targetOrLibrary]?.dependenciesList.orEmpty().map { Label.parse(it.id) } +
+            libraryDependencies[targetOrLibrary].orEmpty().map { it.label } +
+            librariesToImport[targetOrLibrary]?.dependencies.orEmpty()
+        },
+      )
+    Span.current().setAttribute("transitive.jars.index.bytes", transitiveJars.retainedBytes)
 
-            val transitiveJdepsJars =
-              getJdepsJarsFromTransitiveDependencies(
-                targetLabel,
-                targetsToImport,
-                libraryDependencies,
-                librariesToImport,
-                outputJarsFromTransitiveDepsCache,
-                allJdepsJars,
-              )
-            targetLabel to jarsFromJdeps - transitiveJdepsJars
-          }
-        }.awaitAll()
-        .toMap()
-        .filterValues { it.isNotEmpty() }
-    }
+    return targetsWithJdepsJars
+      .mapValues { (targetLabel, jarsFromJdeps) ->
+        jarsFromJdeps.filterNot { transitiveJars.contains(targetLabel, it) }.toSet()
+      }.filterValues { it.isNotEmpty() }
   }
 
-  private fun getJdepsJarsFromTransitiveDependencies(
+  private fun ownJars(
     targetOrLibrary: Label,
     targetsToImport: Map<Label, TargetInfo>,
-    libraryDependencies: Map<Label, List<Library>>,
     librariesToImport: Map<Label, Library>,
-    outputJarsFromTransitiveDepsCache: ConcurrentHashMap<Label, Set<Path>>,
-    allJdepsJars: Set<Path>,
-  ): Set<Path> =
-    outputJarsFromTransitiveDepsCache.getOrPut(targetOrLibrary) {
-      val jarsFromTargets =
-        targetsToImport[targetOrLibrary]?.let { getTargetOutputJarsSet(it) + getTargetInterfaceJarsSet(it) }.orEmpty()
-      val jarsFromLibraries =
-        librariesToImport[targetOrLibrary]?.let { it.outputs + it.interfaceJars }.orEmpty().map { Paths.get(it.path) }
-      val outputJars =
-        listOfNotNull(jarsFromTargets, jarsFromLibraries)
-          .asSequence()
-          .flatten()
-          .filter { it in allJdepsJars }
-          .toMutableSet()
-
-      val dependencies =
-        targetsToImport[targetOrLibrary]?.dependenciesList.orEmpty().map { Label.parse(it.id) } +
-          libraryDependencies[targetOrLibrary].orEmpty().map { it.label } +
-          librariesToImport[targetOrLibrary]?.dependencies.orEmpty()
-
-      dependencies.flatMapTo(outputJars) { dependency ->
-        getJdepsJarsFromTransitiveDependencies(
-          dependency,
-          targetsToImport,
-          libraryDependencies,
-          librariesToImport,
-          outputJarsFromTransitiveDepsCache,
-          allJdepsJars,
-        )
-      }
-      outputJars
-    }
+  ): List<Path> {
+    val jarsFromTargets =
+      targetsToImport[targetOrLibrary]?.let { getTargetOutputJarsList(it) + getTargetInterfaceJarsList(it) }.orEmpty()
+    val jarsFromLibraries =
+      librariesToImport[targetOrLibrary]?.let { it.outputs + it.interfaceJars }.orEmpty().map { Paths.get(it.path) }
+    return jarsFromTargets + jarsFromLibraries
+  }
 
   private fun dependencyJarsFromJdepsFiles(targetInfo: TargetInfo): Set<Path> =
     targetInfo.jvmTargetInfo.jdepsList
       .flatMap { jdeps ->
-        val path = bazelPathsResolver.resolve(jdeps)
-        if (path.toFile().exists()) {
-          val dependencyList =
-            path.inputStream().use {
-              Deps.Dependencies.parseFrom(it).dependencyList
-            }
-          dependencyList
-            .asSequence()
-            .filter { it.isRelevant() }
-            .map { bazelPathsResolver.resolveOutput(Paths.get(it.path)) }
-            .toList()
-        } else {
-          emptySet()
-        }
+        jdepsCache
+          .relevantDependencies(bazelPathsResolver.resolve(jdeps))
+          .map { bazelPathsResolver.resolveOutput(Paths.get(it)) }
       }.toSet()
 
-  /**
-   * Similar to what was done in the Google's Bazel plugin in JdepsFileReader#relevantDep,
-   * we should only include deps that are actually used by the compiler
-   */
-  private fun Deps.Dependency.isRelevant() = kind in sequenceOf(Deps.Dependency.Kind.EXPLICIT, Deps.Dependency.Kind.IMPLICIT)
-
   private fun targetSupportsJdeps(targetInfo: TargetInfo): Boolean {
     val languages = inferLanguages(targetInfo)
     return setOf(Language.JAVA, Language.KOTLIN, Language.SCALA, Language.ANDROID).containsAll(languages)
@@ -724,8 +710,6 @@ class BazelProjectMapper(
       .flatMap { it.sourceJarsList }
       .resolveUris()
 
-  private fun getTargetOutputJarsSet(targetInfo: TargetInfo) = getTargetOutputJarsList(targetInfo).toSet()
-
   private fun getTargetOutputJarsList(targetInfo: TargetInfo) =
     targetInfo.jvmTargetInfo.jarsList
       .flatMap { it.binaryJarsList }
@@ -826,22 +810,33 @@ class BazelProjectMapper(
     targetsToImport: Sequence<TargetInfo>,
     dependencyGraph: DependencyGraph,
     generatedLibraries: Map<Label, Collection<Library>>,
+    moduleCache: IncrementalModuleCache? = null,
   ): List<Module> =
     runBlocking(Dispatchers.Default) {
       targetsToImport
         .toList()
         .map {
           async {
-            createModule(
-              it,
-              dependencyGraph,
-              generatedLibraries[Label.parse(it.id)].orEmpty(),
-            )
+            val extraLibraries = generatedLibraries[Label.parse(it.id)].orEmpty()
+            if (moduleCache != null) {
+              moduleCache.getOrCreate(it, extraLibraries.map { library -> library.label }, moduleInputFiles(it)) {
+                createModule(it, dependencyGraph, extraLibraries)
+              }
+            } else {
+              createModule(it, dependencyGraph, extraLibraries)
+            }
           }
         }.awaitAll()
         .filterNot { it.tags.contains(Tag.NO_IDE) }
     }
 
+  // the files read by resolveSourceSet, the module depends on whether they exist and on their package declarations
+  private fun moduleInputFiles(target: TargetInfo): List<Path> {
+    val languagePlugin = languagePluginsService.getPlugin(inferLanguages(target))
+    return (target.sourcesList + languagePlugin.calculateAdditionalSources(target) + target.generatedSourcesList)
+      .map(bazelPathsResolver::resolve)
+  }
+
   private fun createModule(
     target: TargetInfo,
     dependencyGraph: DependencyGraph,
@@ -902,18 +897,8 @@ class BazelProjectMapper(
   }
 
   private fun resolveSourceSet(target: TargetInfo, languagePlugin: LanguagePlugin<*>): SourceSet {
-    val sources =
-      (target.sourcesList + languagePlugin.calculateAdditionalSources(target))
-        .toSet()
-        .map(bazelPathsResolver::resolve)
-        .onEach { if (it.notExists()) it.logNonExistingFile(target.id) }
-        .filter { it.exists() }
-    val generatedSources =
-      target.generatedSourcesList
-        .toSet()
-        .map(bazelPathsResolver::resolve)
-        .onEach { if (it.notExists()) it.logNonExistingFile(target.id) }
-        .filter { it.exists() }
+    val sources = (target.sourcesList + languagePlugin.calculateAdditionalSources(target)).toSet().resolveExisting(target.id)
+    val generatedSources = target.generatedSourcesList.toSet().resolveExisting(target.id)
 
     val sourceRootsAndData = sources.map { it to languagePlugin.calculateSourceRootAndAdditionalData(it) }
     val generatedRootsAndData = generatedSources.map { it to languagePlugin.calculateSourceRootAndAdditionalData(it) }
@@ -938,6 +923,12 @@ class BazelProjectMapper(
     )
   }
 
+  // checked against the directory listings of the sync, so the sources of a directory cost a single file system call
+  private fun Set<FileLocation>.resolveExisting(targetId: String): List<Path> =
+    map(bazelPathsResolver::resolve).filter { path ->
+      bazelPathsResolver.exists(path).also { exists -> if (!exists) path.logNonExistingFile(targetId) }
+    }
+
   private fun Path.logNonExistingFile(targetId: String) {
     val message = "[WARN] target $targetId: $this does not exist."
     bspClientLogger.error(message)
@@ -57,6 +57,8 @@ import ch.epfl.scala.bsp4j.SourcesParams
 import ch.epfl.scala.bsp4j.SourcesResult
 import ch.epfl.scala.bsp4j.TestProvider
 import ch.epfl.scala.bsp4j.WorkspaceBuildTargetsResult
+import org.apache.logging.log4j.LogManager
+import org.apache.logging.log4j.Logger
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
 import org.jetbrains.bsp.bazel.bazelrunner.BazelRunner
 import org.jetbrains.bsp.bazel.commons.Constants
@@ -74,6 +76,7 @@ import org.jetbrains.bsp.bazel.server.sync.languages.java.IdeClasspathResolver
 import org.jetbrains.bsp.bazel.server.sync.languages.java.JavaModule
 import org.jetbrains.bsp.bazel.server.sync.languages.jvm.javaModule
 import org.jetbrains.bsp.bazel.server.sync.languages.scala.ScalaModule
+import org.jetbrains.bsp.bazel.workspacecontext.WorkspaceContext
 import org.jetbrains.bsp.bazel.workspacecontext.WorkspaceContextProvider
 import org.jetbrains.bsp.protocol.BazelBuildServerCapabilities
 import org.jetbrains.bsp.protocol.DirectoryItem
@@ -92,6 +95,7 @@ import java.io.IOException
 import java.net.URI
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.io.path.name
 import kotlin.io.path.relativeToOrNull
 import kotlin.io.path.toPath
@@ -103,6 +107,25 @@ class BspProjectMapper(
   private val bazelRunner: BazelRunner,
   private val bspInfo: BspInfo,
 ) {
+  @Volatile
+  private var inverseSourcesIndex: InverseSourcesIndex? = null
+
+  /** Classpaths queried since the last sync, for the workspace context (and thus the build flags) they were queried with. */
+  private class ClasspathCache(val project: Project, val workspaceContext: WorkspaceContext) {
+    val classpaths = ConcurrentHashMap<Label, ClasspathQuery.JvmClasspath>()
+  }
+
+  @Volatile
+  private var classpathCache: ClasspathCache? = null
+
+  /** Rust workspaces computed since the last sync, by the requested targets. */
+  private class RustWorkspaceCache(val project: Project) {
+    val results = ConcurrentHashMap<Set<BuildTargetIdentifier>, RustWorkspaceResult>()
+  }
+
+  @Volatile
+  private var rustWorkspaceCache: RustWorkspaceCache? = null
+
   fun initializeServer(supportedLanguages: Set<Language>): InitializeBuildResult {
     val languageNames = supportedLanguages.map { it.id }
     val capabilities =
@@ -338,9 +361,16 @@ class BspProjectMapper(
       documentUri
         .toPath()
         .relativeToOrNull(project.workspaceRoot.toPath()) ?: throw RuntimeException("File path outside of project root")
+    inverseSourcesIndex(project).targetsContaining(documentUri.toPath())?.let { targets ->
+      return InverseSourcesResult(targets.map { BuildTargetIdentifier(it.value) })
+    }
     return InverseSourcesQuery.inverseSourcesQuery(documentRelativePath, bazelRunner, project.bazelRelease, cancelChecker)
   }
 
+  // rebuilt only when a sync produced a new project
+  private fun inverseSourcesIndex(project: Project): InverseSourcesIndex =
+    inverseSourcesIndex?.takeIf { it.project === project } ?: InverseSourcesIndex(project).also { inverseSourcesIndex = it }
+
   fun dependencySources(project: Project, dependencySourcesParams: DependencySourcesParams): DependencySourcesResult {
     fun getDependencySourcesItem(label: Label): DependencySourcesItem {
       val sources =
@@ -423,12 +453,11 @@ class BspProjectMapper(
         }
       }
 
-    return targets.mapNotNull {
-      val label = Label.parse(it.uri)
-      val module = project.findModule(label)
-      val cqueryResult = ClasspathQuery.classPathQuery(it, cancelChecker, bspInfo, bazelRunner).runtime_classpath
-      val resolvedClasspath = resolveClasspath(cqueryResult)
-      module?.let { extractJvmEnvironmentItem(module, resolvedClasspath) }
+    val modules = targets.mapNotNull { project.findModule(Label.parse(it.uri)) }
+    val classpaths = queryClasspaths(project, modules.map { it.label }, cancelChecker)
+    return modules.mapNotNull { module ->
+      val resolvedClasspath = resolveClasspath(classpaths.getValue(module.label).runtime_classpath)
+      extractJvmEnvironmentItem(module, resolvedClasspath)
     }
   }
 
@@ -501,24 +530,43 @@ class BspProjectMapper(
     includeClasspath: Boolean,
     cancelChecker: CancelChecker,
     mapper: (Module, List<URI>) -> T?,
-  ): List<T> =
-    this
-      .mapNotNull { project.findModule(Label.parse(it.uri)) }
-      .mapNotNull {
-        val classpath = if (includeClasspath) readIdeClasspath(it.label, cancelChecker) else emptyList()
-        mapper(it, classpath)
-      }
+  ): List<T> {
+    val modules = this.mapNotNull { project.findModule(Label.parse(it.uri)) }
+    val classpaths = if (includeClasspath) queryClasspaths(project, modules.map { it.label }, cancelChecker) else emptyMap()
+    return modules.mapNotNull {
+      val classpath = classpaths[it.label]?.let { classPathFromQuery -> readIdeClasspath(it.label, classPathFromQuery) }.orEmpty()
+      mapper(it, classpath)
+    }
+  }
 
-  private fun readIdeClasspath(targetLabel: Label, cancelChecker: CancelChecker): List<URI> {
-    val targetIdentifier = BspMappings.toBspId(targetLabel)
-    val classPathFromQuery = ClasspathQuery.classPathQuery(targetIdentifier, cancelChecker, bspInfo, bazelRunner)
-    val ideClasspath =
-      IdeClasspathResolver.resolveIdeClasspath(
-        label = targetLabel,
-        runtimeClasspath = resolveClasspath(classPathFromQuery.runtime_classpath),
-        compileClasspath = resolveClasspath(classPathFromQuery.compile_classpath),
-      )
-    return ideClasspath
+  private fun readIdeClasspath(targetLabel: Label, classPathFromQuery: ClasspathQuery.JvmClasspath): List<URI> =
+    IdeClasspathResolver.resolveIdeClasspath(
+      label = targetLabel,
+      runtimeClasspath = resolveClasspath(classPathFromQuery.runtime_classpath),
+      compileClasspath = resolveClasspath(classPathFromQuery.compile_classpath),
+    )
+
+  /** Returns the classpaths of all [labels], querying the ones not cached since the last sync with a single cquery. */
+  private fun queryClasspaths(
+    project: Project,
+    labels: List<Label>,
+    cancelChecker: CancelChecker,
+  ): Map<Label, ClasspathQuery.JvmClasspath> {
+    val workspaceContext = workspaceContextProvider.currentWorkspaceContext()
+    val cache =
+      classpathCache?.takeIf { it.project === project && it.workspaceContext == workspaceContext }
+        ?: ClasspathCache(project, workspaceContext).also { classpathCache = it }
+    val missingLabels = labels.filterNot { it in cache.classpaths }.distinct()
+    val queriedClasspaths = ClasspathQuery.classPathQuery(missingLabels, cancelChecker, bspInfo, bazelRunner)
+    cache.classpaths.putAll(queriedClasspaths)
+    // e.g. a label printed with a canonical repository name ("@@repo~1.0//...") does not match the requested one,
+    // the miss is cached as well, so that such a target is not queried again until the next sync
+    val labelsNotInResult = missingLabels.filterNot(queriedClasspaths::containsKey)
+    if (labelsNotInResult.isNotEmpty()) {
+      LOGGER.warn("Classpath query returned no result for {}, using empty classpaths", labelsNotInResult.joinToString())
+      labelsNotInResult.forEach { cache.classpaths[it] = EMPTY_CLASSPATH }
+    }
+    return labels.associateWith { cache.classpaths[it] ?: EMPTY_CLASSPATH }
   }
 
   private fun resolveClasspath(cqueryResult: List<String>) =
@@ -591,13 +639,23 @@ class BspProjectMapper(
   }
 
   fun rustWorkspace(project: Project, params: RustWorkspaceParams): RustWorkspaceResult {
-    val allRustModules = project.modules.filter { Language.RUST in it.languages }
-    val requestedModules =
-      BspMappings
-        .getModules(project, params.targets)
-        .filter { Language.RUST in it.languages }
-    val toRustWorkspaceResult = languagePluginsService.rustLanguagePlugin::toRustWorkspaceResult
-
-    return toRustWorkspaceResult(requestedModules, allRustModules)
+    val cache =
+      rustWorkspaceCache?.takeIf { it.project === project }
+        ?: RustWorkspaceCache(project).also { rustWorkspaceCache = it }
+    return cache.results.computeIfAbsent(params.targets.toSet()) { targets ->
+      val allRustModules = project.modules.filter { Language.RUST in it.languages }
+      val requestedModules =
+        BspMappings
+          .getModules(project, targets.toList())
+          .filter { Language.RUST in it.languages }
+      val toRustWorkspaceResult = languagePluginsService.rustLanguagePlugin::toRustWorkspaceResult
+
+      toRustWorkspaceResult(requestedModules, allRustModules)
+    }
+  }
+
+  companion object {
+    private val LOGGER: Logger = LogManager.getLogger(BspProjectMapper::class.java)
+    private val EMPTY_CLASSPATH = ClasspathQuery.JvmClasspath(emptyList(), emptyList())
   }
 }
@@ -2,44 +2,73 @@ package org.jetbrains.bsp.bazel.server.sync
 
 import ch.epfl.scala.bsp4j.BuildTargetIdentifier
 import com.google.gson.Gson
-import com.google.gson.JsonSyntaxException
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import org.jetbrains.bsp.bazel.bazelrunner.BazelCommandPriority
 import org.jetbrains.bsp.bazel.bazelrunner.BazelRunner
 import org.jetbrains.bsp.bazel.server.bsp.info.BspInfo
+import org.jetbrains.bsp.bazel.server.model.Label
+import java.io.Reader
+import java.io.StringReader
 
 object ClasspathQuery {
+  private val gson = Gson()
+
+  /** Queries the classpaths of all [targets] with a single `cquery`. */
   fun classPathQuery(
-    target: BuildTargetIdentifier,
+    targets: Collection<Label>,
     cancelChecker: CancelChecker,
     bspInfo: BspInfo,
     bazelRunner: BazelRunner,
-  ): JvmClasspath {
+  ): Map<Label, JvmClasspath> {
+    if (targets.isEmpty()) return emptyMap()
     val queryFile = bspInfo.bazelBspDir().resolve("aspects/runtime_classpath_query.bzl")
     val command =
       bazelRunner.buildBazelCommand(inheritProjectviewOptionsOverride = true) {
         cquery {
-          targets.add(target)
+          this.targets.add(BuildTargetIdentifier(targets.joinToString(" ", prefix = "set(", postfix = ")")))
           options.addAll(listOf("--starlark:file=$queryFile", "--output=starlark"))
         }
       }
     val cqueryResult =
       bazelRunner
-        .runBazelCommand(command, logProcessOutput = false, serverPidFuture = null)
-        .waitAndGetResult(cancelChecker, ensureAllOutputRead = true)
-    if (cqueryResult.isNotSuccess) throw RuntimeException("Could not query target '${target.uri}' for runtime classpath")
-    try {
-      val classpaths = Gson().fromJson(cqueryResult.stdout, JvmClasspath::class.java)
-      return classpaths
-    } catch (e: JsonSyntaxException) {
-      // sometimes Bazel returns two values to a query when multiple configurations apply to a target
-      return if (cqueryResult.stdoutLines.size > 1) {
-        val allOpts = cqueryResult.stdoutLines.map { Gson().fromJson(it, JvmClasspath::class.java) }
-        allOpts.maxByOrNull { it.runtime_classpath.size + it.compile_classpath.size }!!
-      } else {
-        throw e
-      }
+        .runBazelCommand(
+          command,
+          logProcessOutput = false,
+          serverPidFuture = null,
+          priority = BazelCommandPriority.INTERACTIVE,
+        ).waitAndGetResult(cancelChecker, ensureAllOutputRead = true)
+    if (cqueryResult.isNotSuccess) {
+      throw RuntimeException("Could not query targets ${targets.joinToString()} for runtime classpath")
     }
+    return parse(StringReader(cqueryResult.stdout))
   }
 
-  data class JvmClasspath(val runtime_classpath: List<String>, val compile_classpath: List<String>)
+  /**
+   * Bazel prints one result per configured target, so a target built in multiple configurations
+   * has multiple results - the one with the longest classpath is used.
+   */
+  fun parse(output: Reader): Map<Label, JvmClasspath> {
+    val result = HashMap<Label, JvmClasspath>()
+    // the results are consecutive JSON objects, the lenient reader consumes them in one pass
+    val reader = JsonReader(output).apply { isLenient = true }
+    while (reader.peek() != JsonToken.END_DOCUMENT) {
+      val labeled = gson.fromJson<LabeledJvmClasspath>(reader, LabeledJvmClasspath::class.java)
+      val classpath = JvmClasspath(labeled.runtime_classpath, labeled.compile_classpath)
+      result.merge(Label.parse(labeled.label), classpath) { current, other -> maxOf(current, other, compareBy { it.size }) }
+    }
+    return result
+  }
+
+  private data class LabeledJvmClasspath(
+    val label: String,
+    val runtime_classpath: List<String>,
+    val compile_classpath: List<String>,
+  )
+
+  data class JvmClasspath(val runtime_classpath: List<String>, val compile_classpath: List<String>) {
+    val size: Int
+      get() = runtime_classpath.size + compile_classpath.size
+  }
 }
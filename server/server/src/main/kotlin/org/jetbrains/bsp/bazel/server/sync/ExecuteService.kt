@@ -26,7 +26,6 @@ import org.jetbrains.bsp.bazel.logger.BspClientLogger
 import org.jetbrains.bsp.bazel.server.bep.BepServer
 import org.jetbrains.bsp.bazel.server.bsp.managers.BazelBspCompilationManager
 import org.jetbrains.bsp.bazel.server.bsp.managers.BepReader
-import org.jetbrains.bsp.bazel.server.diagnostics.DiagnosticsService
 import org.jetbrains.bsp.bazel.server.model.BspMappings
 import org.jetbrains.bsp.bazel.server.model.Module
 import org.jetbrains.bsp.bazel.server.model.Tag
@@ -59,8 +58,7 @@ class ExecuteService(
     target: BuildTargetIdentifier?,
     body: (BepReader) -> T,
   ): T {
-    val diagnosticsService = DiagnosticsService(compilationManager.workspaceRoot)
-    val server = BepServer(compilationManager.client, diagnosticsService, originId, target, bazelPathsResolver)
+    val server = BepServer(compilationManager.client, compilationManager.diagnosticsService, originId, target, bazelPathsResolver)
     val bepReader = BepReader(server)
 
     try {
@@ -108,9 +106,9 @@ class ExecuteService(
     command.options.add(BazelFlag.buildEventBinaryPathConversion(false))
     (command as HasMultipleTargets).addTargetsFromSpec(targetsSpec)
 
-    // TODO: handle multiple targets
+    // all targets are tested by a single command, the test results are reported per target by BepServer
     val result =
-      withBepServer(params.originId, params.targets.single()) { bepReader ->
+      withBepServer(params.originId, null) { bepReader ->
         command.useBes(bepReader.eventFile.toPath().toAbsolutePath())
         bazelRunner
           .runBazelCommand(
@@ -0,0 +1,100 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelInfo
+import org.jetbrains.bsp.bazel.commons.Constants
+import org.jetbrains.bsp.bazel.logger.BspClientLogger
+import org.jetbrains.bsp.bazel.server.benchmark.tracer
+import org.jetbrains.bsp.bazel.server.benchmark.use
+import org.jetbrains.bsp.bazel.server.bsp.info.BspInfo
+import org.jetbrains.bsp.bazel.server.model.Project
+import org.jetbrains.bsp.bazel.workspacecontext.WorkspaceContextProvider
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import kotlin.io.path.createDirectories
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.inputStream
+import kotlin.io.path.outputStream
+
+/**
+ * Keeps the last resolved [Project] in `.bazelbsp/` so that a restarted server can answer requests
+ * before the first sync finishes.
+ *
+ * A snapshot is only accepted if it was written by the same snapshot format, the same server (and thus aspect) version,
+ * for the same workspace context and the same Bazel release - otherwise [load] returns `null` and a full sync is needed.
+ */
+class FileProjectStorage(
+  private val path: Path,
+  private val workspaceContextProvider: WorkspaceContextProvider,
+  private val bazelInfo: BazelInfo,
+  private val bspClientLogger: BspClientLogger,
+) : ProjectStorage {
+  constructor(
+    bspInfo: BspInfo,
+    workspaceContextProvider: WorkspaceContextProvider,
+    bazelInfo: BazelInfo,
+    bspClientLogger: BspClientLogger,
+  ) : this(bspInfo.bazelBspDir().resolve(SNAPSHOT_FILE_NAME), workspaceContextProvider, bazelInfo, bspClientLogger)
+
+  override fun load(): Project? {
+    if (!path.exists()) return null
+    return tracer.spanBuilder("Load project snapshot").use {
+      try {
+        DataInputStream(BufferedInputStream(path.inputStream(), BUFFER_SIZE)).use(::readSnapshot)
+      } catch (e: IOException) {
+        bspClientLogger.warn("Could not load project snapshot from $path: ${e.message}")
+        null
+      } catch (e: RuntimeException) {
+        bspClientLogger.warn("Discarding corrupted project snapshot $path: ${e.message}")
+        path.deleteIfExists()
+        null
+      }
+    }
+  }
+
+  private fun readSnapshot(input: DataInputStream): Project? {
+    if (input.readInt() != MAGIC || input.readInt() != ProjectSnapshotCodec.FORMAT_VERSION) return null
+    if (input.readUTF() != snapshotKey()) return null
+    return ProjectSnapshotCodec.read(input)
+  }
+
+  override fun store(project: Project) {
+    tracer.spanBuilder("Store project snapshot").use {
+      val tempPath = path.resolveSibling("$SNAPSHOT_FILE_NAME.tmp")
+      try {
+        path.parent.createDirectories()
+        DataOutputStream(BufferedOutputStream(tempPath.outputStream(), BUFFER_SIZE)).use { output ->
+          output.writeInt(MAGIC)
+          output.writeInt(ProjectSnapshotCodec.FORMAT_VERSION)
+          output.writeUTF(snapshotKey())
+          ProjectSnapshotCodec.write(project, output)
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      } catch (e: IOException) {
+        bspClientLogger.warn("Could not store project snapshot in $path: ${e.message}")
+        tempPath.deleteIfExists()
+      }
+    }
+  }
+
+  private fun snapshotKey(): String {
+    val key = "${Constants.VERSION}|${bazelInfo.release.major}|${workspaceContextProvider.currentWorkspaceContext()}"
+    return MessageDigest
+      .getInstance("SHA-256")
+      .digest(key.toByteArray(Charsets.UTF_8))
+      .joinToString("") { "%02x".format(it) }
+  }
+
+  companion object {
+    private const val SNAPSHOT_FILE_NAME = "project-snapshot.bin"
+    private const val MAGIC = 0x42535053 // "BSPS"
+    private const val BUFFER_SIZE = 1 shl 16
+  }
+}
@@ -0,0 +1,129 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import org.jetbrains.bsp.bazel.server.dependencygraph.DependencyGraph
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.jetbrains.bsp.bazel.server.model.Module
+import org.jetbrains.bsp.bazel.server.paths.FileSystemSnapshot
+import org.jetbrains.bsp.bazel.workspacecontext.WorkspaceContext
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the modules created by [BazelProjectMapper] during the previous sync, so that a resync re-maps
+ * only the targets whose aspect output changed together with their reverse dependencies.
+ *
+ * A module is created from the files of its sources as well (only existing sources are kept and their package
+ * declarations give the source roots), so it is reused only if none of them appeared, disappeared or was modified.
+ * Creating a module only hashes which of its files exist (answered by the directory listings of [fileSystemSnapshot]),
+ * the modification times are read only for a module which could be reused and compared with the start of the sync
+ * that created it.
+ * Everything is invalidated when the workspace context changes, when a sync builds the project (which may
+ * regenerate sources) or when a target that influences project-level language settings (e.g. the JDK,
+ * the default Python interpreter or the Scala, Go and Kotlin SDKs) changes.
+ */
+class IncrementalModuleCache(private val fileSystemSnapshot: FileSystemSnapshot) {
+  private class Entry(
+    val targetInfo: TargetInfo,
+    val extraLibraries: List<Label>,
+    val existingInputFilesHash: Int,
+    val createdAtMillis: Long,
+    val module: Module,
+  )
+
+  private var workspaceContext: WorkspaceContext? = null
+  private var previousTargets: Map<Label, TargetInfo> = emptyMap()
+  private var invalidatedTargets: Set<Label> = emptySet()
+  private var entries = ConcurrentHashMap<Label, Entry>()
+  private var syncStartMillis = 0L
+
+  /**
+   * Compares [targets] with the ones from the previous sync. Has to be called before any [getOrCreate] call of a sync.
+   * Modules are not reused if [build] is set, but the ones created are remembered for the next sync.
+   */
+  fun startSync(
+    targets: Map<Label, TargetInfo>,
+    dependencyGraph: DependencyGraph,
+    workspaceContext: WorkspaceContext,
+    build: Boolean = false,
+  ) {
+    val changedTargets = changedTargets(targets)
+    if (build || workspaceContext != this.workspaceContext || changedTargets.any { changesProjectLevelSettings(it, targets) }) {
+      entries = ConcurrentHashMap()
+      invalidatedTargets = emptySet()
+    } else {
+      invalidatedTargets = dependencyGraph.reverseTransitiveDependencies(changedTargets)
+    }
+    entries.keys.retainAll(targets.keys)
+    // taken before any module is created, so a file modified while the sync runs is noticed by the next one
+    syncStartMillis = System.currentTimeMillis()
+    this.workspaceContext = workspaceContext
+    previousTargets = targets
+  }
+
+  /**
+   * Returns the module of [target] from the previous sync, or the one created by [createModule] if [target],
+   * its [extraLibraries] or any of the [inputFiles] the module is created from changed.
+   */
+  fun getOrCreate(
+    target: TargetInfo,
+    extraLibraries: List<Label>,
+    inputFiles: List<Path>,
+    createModule: () -> Module,
+  ): Module {
+    val label = Label.parse(target.id)
+    val cached = entries[label]
+    if (cached != null &&
+      label !in invalidatedTargets &&
+      cached.targetInfo == target &&
+      cached.extraLibraries == extraLibraries &&
+      inputFilesUnchanged(inputFiles, cached)
+    ) {
+      return cached.module
+    }
+    val existingInputFilesHash = inputFiles.filter(fileSystemSnapshot::exists).hashCode()
+    return createModule().also { entries[label] = Entry(target, extraLibraries, existingInputFilesHash, syncStartMillis, it) }
+  }
+
+  // a file modified shortly before the module was created may have a coarse modification time, so it is considered changed
+  private fun inputFilesUnchanged(inputFiles: List<Path>, entry: Entry): Boolean {
+    val existing = ArrayList<Path>(inputFiles.size)
+    for (file in inputFiles) {
+      val lastModifiedMillis = fileSystemSnapshot.lastModifiedMillis(file) ?: continue
+      if (lastModifiedMillis >= entry.createdAtMillis - MODIFICATION_TIME_PRECISION_MILLIS) return false
+      existing.add(file)
+    }
+    return existing.hashCode() == entry.existingInputFilesHash
+  }
+
+  private fun changedTargets(targets: Map<Label, TargetInfo>): Set<Label> =
+    (targets.keys + previousTargets.keys)
+      .filter { targets[it] != previousTargets[it] }
+      .toSet()
+
+  private fun changesProjectLevelSettings(label: Label, targets: Map<Label, TargetInfo>): Boolean {
+    val current = targets[label]
+    val previous = previousTargets[label]
+    return listOfNotNull(current, previous).any(::isProjectLevelTarget) ||
+      current != null && previous != null && sdkInputs(current) != sdkInputs(previous)
+  }
+
+  private fun isProjectLevelTarget(target: TargetInfo): Boolean =
+    target.hasJavaToolchainInfo() ||
+      target.hasJavaRuntimeInfo() ||
+      target.hasPythonTargetInfo() &&
+      target.pythonTargetInfo.hasInterpreter()
+
+  // SDKs and standard libraries the language plugins read from every target (the rest of the target may change freely)
+  private fun sdkInputs(target: TargetInfo): List<Any> =
+    listOf(
+      target.scalaTargetInfo.compilerClasspathList,
+      target.goTargetInfo.sdkHomePath,
+      target.kotlinTargetInfo.stdlibsList,
+    )
+
+  companion object {
+    // the coarsest modification time precision of common file systems (FAT)
+    private const val MODIFICATION_TIME_PRECISION_MILLIS = 2000L
+  }
+}
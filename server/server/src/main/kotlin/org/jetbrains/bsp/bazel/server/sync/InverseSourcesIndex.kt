@@ -0,0 +1,23 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.jetbrains.bsp.bazel.server.model.Project
+import java.nio.file.Path
+import kotlin.io.path.toPath
+
+/**
+ * Targets containing each source file of a synced [Project], so that `buildTarget/inverseSources` for a file
+ * known to the last sync is answered without running Bazel.
+ *
+ * Unlike [Project.sourceToTarget], which keeps a single target per file, all targets containing the file are kept.
+ */
+class InverseSourcesIndex(val project: Project) {
+  private val sourceToTargets: Map<Path, List<Label>> =
+    project.modules
+      .asSequence()
+      .flatMap { module -> module.sourceSet.sources.asSequence().map { it.source.toPath().normalize() to module.label } }
+      .groupBy({ it.first }, { it.second })
+
+  /** Returns `null` if the file is not a source of any synced target. */
+  fun targetsContaining(file: Path): List<Label>? = sourceToTargets[file.normalize()]
+}
@@ -4,83 +4,70 @@ import ch.epfl.scala.bsp4j.BuildTargetIdentifier
 import ch.epfl.scala.bsp4j.InverseSourcesResult
 import ch.epfl.scala.bsp4j.StatusCode
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
+import org.jetbrains.bsp.bazel.bazelrunner.BazelCommandPriority
 import org.jetbrains.bsp.bazel.bazelrunner.BazelRunner
 import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelRelease
+import org.jetbrains.bsp.bazel.server.bsp.managers.readXML
 import org.jetbrains.bsp.bazel.server.model.Label
+import org.w3c.dom.Document
+import org.w3c.dom.Element
+import org.w3c.dom.NodeList
 import java.nio.file.Path
+import javax.xml.xpath.XPathConstants
+import javax.xml.xpath.XPathFactory
 
 object InverseSourcesQuery {
-  fun inverseSourcesQuery(
-    documentRelativePath: Path,
-    bazelRunner: BazelRunner,
-    bazelInfo: BazelRelease,
-    cancelChecker: CancelChecker,
-  ): InverseSourcesResult {
-    val fileLabel =
-      fileLabel(documentRelativePath, bazelRunner, cancelChecker)
-        ?: return InverseSourcesResult(
-          emptyList(),
-        )
-    val listOfLabels = targetLabels(fileLabel, bazelRunner, bazelInfo, cancelChecker)
-    return InverseSourcesResult(listOfLabels.map { BuildTargetIdentifier(it.value) })
-  }
-
   /**
-   * @return list of targets that contain `fileLabel` in their `srcs` attribute
+   * Finds the targets containing the file in their `srcs` attribute with a single `bazel query`,
+   * which resolves the file label and lists the targets of its package referencing it at once.
    */
-  private fun targetLabels(
-    fileLabel: String,
+  fun inverseSourcesQuery(
+    documentRelativePath: Path,
     bazelRunner: BazelRunner,
     bazelRelease: BazelRelease,
     cancelChecker: CancelChecker,
-  ): List<Label> {
-    val packageLabel = fileLabel.replace(":.*".toRegex(), ":*")
+  ): InverseSourcesResult {
+    val file = documentRelativePath.toString()
     val consistentLabelsArg = listOfNotNull(if (bazelRelease.major >= 6) "--consistent_labels" else null) // #bazel5
     val command =
       bazelRunner.buildBazelCommand {
         query {
           options.addAll(consistentLabelsArg)
-          options.add("attr('srcs', $fileLabel, $packageLabel)")
+          options.addAll(listOf("--output=xml", "--order_output=no"))
+          options.add("$file + same_pkg_direct_rdeps($file)")
         }
       }
-    val targetLabelsQuery =
+    val result =
       bazelRunner
-        .runBazelCommand(command, logProcessOutput = false, serverPidFuture = null)
-        .waitAndGetResult(cancelChecker)
-    if (targetLabelsQuery.statusCode == StatusCode.OK) {
-      return targetLabelsQuery.stdoutLines.map { Label.parse(it) }
-    } else {
-      error("Could not retrieve inverse sources")
+        .runBazelCommand(
+          command,
+          logProcessOutput = false,
+          serverPidFuture = null,
+          priority = BazelCommandPriority.INTERACTIVE,
+        ).waitAndGetResult(cancelChecker, ensureAllOutputRead = true)
+    if (result.statusCode != StatusCode.OK) {
+      if (result.stderrLines.any { it.contains("no such target '") }) {
+        // the file does not exist or does not belong to any package
+        return InverseSourcesResult(emptyList())
+      }
+      throw RuntimeException("Could not find file. Bazel query failed:\n ${result.stderrLines.joinToString("\n")}\n")
     }
+    val document = result.stdout.readXML() ?: error("Could not retrieve inverse sources")
+    return InverseSourcesResult(document.targetsWithFileInSrcs().map { BuildTargetIdentifier(it.value) })
   }
 
   /**
-   * @return Bazel label corresponding to file path
-   *
-   * For example when you pass a relative path like "foo/Lib.kt", you will receive "//foo:Lib.kt".
-   * Null is returned in case the file does not exist or does not belong to any target's sources list
+   * @return targets that contain the queried source file in their `srcs` attribute
    */
-  private fun fileLabel(
-    relativePath: Path,
-    bazelRunner: BazelRunner,
-    cancelChecker: CancelChecker,
-  ): String? {
-    val command =
-      bazelRunner.buildBazelCommand {
-        query {
-          targets.add(BuildTargetIdentifier(relativePath.toString()))
-        }
-      }
-    val fileLabelResult =
-      bazelRunner
-        .runBazelCommand(command, logProcessOutput = false, serverPidFuture = null)
-        .waitAndGetResult(cancelChecker)
-    return if (fileLabelResult.statusCode == StatusCode.OK && fileLabelResult.stdoutLines.size == 1) {
-      fileLabelResult.stdoutLines.first()
-    } else if (fileLabelResult.stderrLines.firstOrNull()?.startsWith("ERROR: no such target '") == true) {
-      null
-    } else {
-      throw RuntimeException("Could not find file. Bazel query failed:\n ${fileLabelResult.stderrLines.joinToString { "\n" }}\n")
-    }
+  private fun Document.targetsWithFileInSrcs(): List<Label> {
+    val xPath = XPathFactory.newInstance().newXPath()
+    val fileLabel = xPath.evaluate("/query/source-file/@name", this).takeIf { it.isNotEmpty() } ?: return emptyList()
+    val rules = xPath.evaluate("/query/rule", this, XPathConstants.NODESET) as NodeList
+    return (0 until rules.length)
+      .map { rules.item(it) as Element }
+      .filter { rule ->
+        val srcs = xPath.evaluate("list[@name='srcs']/label/@value", rule, XPathConstants.NODESET) as NodeList
+        (0 until srcs.length).any { srcs.item(it).nodeValue == fileLabel }
+      }.map { Label.parse(it.getAttribute("name")) }
   }
 }
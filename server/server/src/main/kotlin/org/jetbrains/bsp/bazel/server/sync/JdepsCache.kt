@@ -0,0 +1,142 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import com.google.devtools.build.lib.view.proto.Deps
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.io.path.createDirectories
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.inputStream
+import kotlin.io.path.outputStream
+
+/**
+ * Relevant (explicit and implicit) dependencies read from `.jdeps` files, kept in `.bazelbsp/` between syncs.
+ *
+ * Most jdeps files are the same from one sync to the next, so a file is parsed again only if its size or
+ * modification time changed. Entries of files which were not asked for during a sync are dropped by [store].
+ */
+class JdepsCache(private val path: Path) {
+  private class Entry(val size: Long, val lastModifiedMillis: Long, val dependencies: List<String>)
+
+  private val entries: ConcurrentHashMap<String, Entry> by lazy { load() }
+  private val usedFiles = ConcurrentHashMap.newKeySet<String>()
+
+  @Volatile
+  private var changed = false
+
+  /** Returns the paths of the relevant dependencies listed in [jdepsFile], or an empty list if it does not exist. */
+  fun relevantDependencies(jdepsFile: Path): List<String> {
+    val attributes =
+      try {
+        Files.readAttributes(jdepsFile, BasicFileAttributes::class.java)
+      } catch (e: NoSuchFileException) {
+        return emptyList()
+      }
+    val key = jdepsFile.toString()
+    val size = attributes.size()
+    val lastModifiedMillis = attributes.lastModifiedTime().toMillis()
+    usedFiles.add(key)
+    entries[key]?.takeIf { it.size == size && it.lastModifiedMillis == lastModifiedMillis }?.let { return it.dependencies }
+
+    val dependencies = readRelevantDependencies(jdepsFile)
+    entries[key] = Entry(size, lastModifiedMillis, dependencies)
+    changed = true
+    return dependencies
+  }
+
+  private fun readRelevantDependencies(jdepsFile: Path): List<String> =
+    jdepsFile.inputStream().use { input ->
+      Deps.Dependencies
+        .parseFrom(input)
+        .dependencyList
+        .filter { it.isRelevant() }
+        .map { it.path }
+    }
+
+  /**
+   * Similar to what was done in the Google's Bazel plugin in JdepsFileReader#relevantDep,
+   * we should only include deps that are actually used by the compiler
+   */
+  private fun Deps.Dependency.isRelevant() = kind == Deps.Dependency.Kind.EXPLICIT || kind == Deps.Dependency.Kind.IMPLICIT
+
+  /** Writes the entries used since the last call to disk (if anything changed) and forgets all the others. */
+  fun store() {
+    entries.keys.retainAll(usedFiles)
+    if (changed || entries.size != usedFiles.size) {
+      write()
+    }
+    usedFiles.clear()
+    changed = false
+  }
+
+  private fun load(): ConcurrentHashMap<String, Entry> {
+    val result = ConcurrentHashMap<String, Entry>()
+    if (!path.exists()) return result
+    try {
+      DataInputStream(BufferedInputStream(path.inputStream(), BUFFER_SIZE)).use { input ->
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) return result
+        // jar paths are shared by many targets, so every distinct path is stored once and referenced by its index
+        val paths = Array(input.readInt()) { input.readUTF() }
+        repeat(input.readInt()) {
+          val file = input.readUTF()
+          val size = input.readLong()
+          val lastModifiedMillis = input.readLong()
+          val dependencies = List(input.readInt()) { paths[input.readInt()] }
+          result[file] = Entry(size, lastModifiedMillis, dependencies)
+        }
+      }
+    } catch (e: IOException) {
+      path.deleteIfExists()
+      result.clear()
+    } catch (e: RuntimeException) {
+      path.deleteIfExists()
+      result.clear()
+    }
+    return result
+  }
+
+  private fun write() {
+    val tempPath = path.resolveSibling("${path.fileName}.tmp")
+    try {
+      path.parent.createDirectories()
+      val snapshot = entries.toMap()
+      val pathIndices = LinkedHashMap<String, Int>()
+      snapshot.values.forEach { entry -> entry.dependencies.forEach { pathIndices.getOrPut(it) { pathIndices.size } } }
+
+      DataOutputStream(BufferedOutputStream(tempPath.outputStream(), BUFFER_SIZE)).use { output ->
+        output.writeInt(MAGIC)
+        output.writeInt(FORMAT_VERSION)
+        output.writeInt(pathIndices.size)
+        pathIndices.keys.forEach(output::writeUTF)
+        output.writeInt(snapshot.size)
+        for ((file, entry) in snapshot) {
+          output.writeUTF(file)
+          output.writeLong(entry.size)
+          output.writeLong(entry.lastModifiedMillis)
+          output.writeInt(entry.dependencies.size)
+          entry.dependencies.forEach { output.writeInt(pathIndices.getValue(it)) }
+        }
+      }
+      Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    } catch (e: IOException) {
+      // the cache is only an optimization, the next sync parses the files again
+      tempPath.deleteIfExists()
+    }
+  }
+
+  companion object {
+    const val FILE_NAME = "jdeps-cache.bin"
+    private const val MAGIC = 0x4A444550 // "JDEP"
+    private const val FORMAT_VERSION = 1
+    private const val BUFFER_SIZE = 1 shl 16
+  }
+}
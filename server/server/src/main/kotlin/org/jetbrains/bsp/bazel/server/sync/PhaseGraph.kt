@@ -0,0 +1,123 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import io.opentelemetry.api.metrics.LongGauge
+import io.opentelemetry.api.trace.Span
+import io.opentelemetry.context.Context
+import io.opentelemetry.extension.kotlin.asContextElement
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.jetbrains.bsp.bazel.server.benchmark.meter
+import org.jetbrains.bsp.bazel.server.benchmark.openTelemetryInitialized
+import org.jetbrains.bsp.bazel.server.benchmark.tracer
+import org.jetbrains.bsp.bazel.server.benchmark.use
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A computation split into named phases with declared inputs. Every phase starts as soon as all its inputs are done,
+ * so independent phases run concurrently, at most [parallelism] at a time.
+ *
+ * Each phase gets its own span. Once everything is done, the critical path - the longest chain of dependent phases,
+ * which bounds the total time no matter how many threads are available - is attached to the current span
+ * and recorded as the `<name>.critical.path.ms` gauge.
+ */
+class PhaseGraph private constructor(private val scope: CoroutineScope, private val parallelism: Semaphore) {
+  class Phase<T> internal constructor(val name: String, private val inputs: List<Phase<*>>) {
+    internal lateinit var deferred: Deferred<Unit>
+    private var result: Any? = null
+    internal var criticalPathNanos = 0L
+      private set
+    internal var criticalPredecessor: Phase<*>? = null
+      private set
+
+    /** The result of the phase, only available to the phases which declared it as an input. */
+    @Suppress("UNCHECKED_CAST")
+    val value: T
+      get() = result as T
+
+    internal suspend fun run(
+      parallelism: Semaphore,
+      traced: Boolean,
+      body: () -> T,
+    ) {
+      inputs.forEach { it.deferred.await() }
+      val durationNanos =
+        parallelism.withPermit {
+          val start = System.nanoTime()
+          result = if (traced) tracer.spanBuilder(name).use { body() } else body()
+          System.nanoTime() - start
+        }
+      criticalPredecessor = inputs.maxByOrNull { it.criticalPathNanos }
+      criticalPathNanos = durationNanos + (criticalPredecessor?.criticalPathNanos ?: 0)
+    }
+  }
+
+  private val phases = mutableListOf<Phase<*>>()
+
+  fun <T> phase(
+    name: String,
+    vararg inputs: Phase<*>,
+    body: () -> T,
+  ): Phase<T> = addPhase(name, inputs.toList(), traced = true, body)
+
+  /** Like [phase], but if [predicate] is false the phase is skipped (without a span) and results in [ifFalse]. */
+  fun <T> phaseIf(
+    name: String,
+    predicate: Boolean,
+    ifFalse: T,
+    vararg inputs: Phase<*>,
+    body: () -> T,
+  ): Phase<T> = if (predicate) phase(name, *inputs, body = body) else addPhase(name, inputs.toList(), traced = false) { ifFalse }
+
+  private fun <T> addPhase(
+    name: String,
+    inputs: List<Phase<*>>,
+    traced: Boolean,
+    body: () -> T,
+  ): Phase<T> {
+    val phase = Phase<T>(name, inputs)
+    phase.deferred = scope.async { phase.run(parallelism, traced, body) }
+    phases.add(phase)
+    return phase
+  }
+
+  private fun reportCriticalPath(name: String) {
+    val last = phases.maxByOrNull { it.criticalPathNanos } ?: return
+    val criticalPath = generateSequence(last) { it.criticalPredecessor }.map { it.name }.toList().asReversed()
+    val criticalPathMs = last.criticalPathNanos / 1_000_000
+    Span
+      .current()
+      .setAttribute("critical.path.ms", criticalPathMs)
+      .setAttribute("critical.path", criticalPath.joinToString(" -> "))
+    if (openTelemetryInitialized) {
+      criticalPathGauges
+        .computeIfAbsent(name) { meter.gaugeBuilder("$it.critical.path.ms").ofLongs().build() }
+        .set(criticalPathMs)
+    }
+  }
+
+  companion object {
+    // a graph is run on every sync, the gauge of each graph name is built only once
+    private val criticalPathGauges = ConcurrentHashMap<String, LongGauge>()
+
+    fun <T> run(
+      name: String,
+      parallelism: Int = Runtime.getRuntime().availableProcessors(),
+      block: PhaseGraph.() -> Phase<T>,
+    ): T {
+      // phases may block (on I/O or on their own runBlocking), so they are dispatched to the IO pool and bounded by the semaphore;
+      // the OpenTelemetry context makes the phase spans children of the current one
+      return runBlocking(Dispatchers.IO + Context.current().asContextElement()) {
+        val graph = PhaseGraph(this, Semaphore(parallelism))
+        val last = graph.block()
+        graph.phases.forEach { it.deferred.await() }
+        graph.reportCriticalPath(name)
+        last.value
+      }
+    }
+  }
+}
@@ -4,18 +4,30 @@ import org.eclipse.lsp4j.jsonrpc.CancelChecker
 import org.jetbrains.bsp.bazel.server.benchmark.openTelemetry
 import org.jetbrains.bsp.bazel.server.model.Project
 
-class ProjectProvider(private val projectResolver: ProjectResolver) {
+class ProjectProvider(private val projectResolver: ProjectResolver, private val projectStorage: ProjectStorage) {
+  @Volatile
   private var project: Project? = null
 
   @Synchronized
   fun refreshAndGet(cancelChecker: CancelChecker, build: Boolean): Project = loadFromBazel(cancelChecker, build = build)
 
+  /**
+   * Returns the current project without waiting for a running refresh.
+   * After a server restart the project is served from the on-disk snapshot until the client's next sync replaces it.
+   */
+  fun get(cancelChecker: CancelChecker): Project = project ?: loadFromStorageOrBazel(cancelChecker)
+
   @Synchronized
-  fun get(cancelChecker: CancelChecker): Project = project ?: loadFromBazel(cancelChecker, false)
+  private fun loadFromStorageOrBazel(cancelChecker: CancelChecker): Project =
+    project ?: loadFromStorage() ?: loadFromBazel(cancelChecker, false)
+
+  private fun loadFromStorage(): Project? =
+    projectStorage.load()?.also { project = it }
 
   private fun loadFromBazel(cancelChecker: CancelChecker, build: Boolean) =
     projectResolver.resolve(cancelChecker, build = build).also {
       project = it
+      projectStorage.store(it)
       openTelemetry.sdkTracerProvider.forceFlush()
       projectResolver.releaseMemory()
     }
@@ -1,9 +1,12 @@
 package org.jetbrains.bsp.bazel.server.sync
 
+import io.opentelemetry.api.trace.Span
 import org.eclipse.lsp4j.jsonrpc.CancelChecker
 import org.jetbrains.bsp.bazel.bazelrunner.BazelRunner
 import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelInfo
 import org.jetbrains.bsp.bazel.logger.BspClientLogger
+import org.jetbrains.bsp.bazel.server.benchmark.meter
+import org.jetbrains.bsp.bazel.server.benchmark.openTelemetryInitialized
 import org.jetbrains.bsp.bazel.server.benchmark.tracer
 import org.jetbrains.bsp.bazel.server.benchmark.use
 import org.jetbrains.bsp.bazel.server.bsp.managers.BazelBspAspectsManager
@@ -30,6 +33,8 @@ class ProjectResolver(
   private val bazelPathsResolver: BazelPathsResolver,
   private val bspClientLogger: BspClientLogger,
 ) {
+  private val fileSystemCallsSavedGauge by lazy { meter.gaugeBuilder("sync.file.system.calls.saved").ofLongs().build() }
+
   private fun <T> measured(description: String, f: () -> T): T = tracer.spanBuilder(description).use { f() }
 
   fun resolve(cancelChecker: CancelChecker, build: Boolean): Project =
@@ -82,11 +87,30 @@ class ProjectResolver(
           emptyList()
         }
       val rootTargets = buildAspectResult.bepOutput.rootTargets()
+      // directories listed before the build (e.g. by requests since the last sync) may be outdated
+      bazelPathsResolver.fileSystemSnapshot.clear()
       return measured(
         "Mapping to internal model",
-      ) { bazelProjectMapper.createProject(targets, rootTargets.toSet(), allTargetNames, workspaceContext, bazelInfo) }
+      ) {
+        bazelProjectMapper
+          .createProject(targets, rootTargets.toSet(), allTargetNames, workspaceContext, bazelInfo, build)
+          .also { reportFileSystemChecks() }
+      }
     }
 
+  private fun reportFileSystemChecks() {
+    val snapshot = bazelPathsResolver.fileSystemSnapshot
+    val callsSaved = (snapshot.existenceChecks - snapshot.fileSystemCallsMade).coerceAtLeast(0)
+    Span
+      .current()
+      .setAttribute("file.existence.checks", snapshot.existenceChecks)
+      .setAttribute("file.system.calls", snapshot.fileSystemCallsMade)
+      .setAttribute("file.system.calls.saved", callsSaved)
+    if (openTelemetryInitialized) {
+      fileSystemCallsSavedGauge.set(callsSaved)
+    }
+  }
+
   private fun buildProjectWithAspect(
     cancelChecker: CancelChecker,
     workspaceContext: WorkspaceContext,
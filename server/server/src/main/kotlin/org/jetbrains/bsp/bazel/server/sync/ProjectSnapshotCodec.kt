@@ -0,0 +1,476 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelRelease
+import org.jetbrains.bsp.bazel.server.model.GoLibrary
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.jetbrains.bsp.bazel.server.model.Language
+import org.jetbrains.bsp.bazel.server.model.LanguageData
+import org.jetbrains.bsp.bazel.server.model.Library
+import org.jetbrains.bsp.bazel.server.model.Module
+import org.jetbrains.bsp.bazel.server.model.NonModuleTarget
+import org.jetbrains.bsp.bazel.server.model.Project
+import org.jetbrains.bsp.bazel.server.model.SourceSet
+import org.jetbrains.bsp.bazel.server.model.SourceWithData
+import org.jetbrains.bsp.bazel.server.model.Tag
+import org.jetbrains.bsp.bazel.server.sync.languages.android.AndroidModule
+import org.jetbrains.bsp.bazel.server.sync.languages.cpp.CppModule
+import org.jetbrains.bsp.bazel.server.sync.languages.go.GoModule
+import org.jetbrains.bsp.bazel.server.sync.languages.java.JavaModule
+import org.jetbrains.bsp.bazel.server.sync.languages.java.Jdk
+import org.jetbrains.bsp.bazel.server.sync.languages.kotlin.KotlinModule
+import org.jetbrains.bsp.bazel.server.sync.languages.python.PythonModule
+import org.jetbrains.bsp.bazel.server.sync.languages.rust.RustCrateLocation
+import org.jetbrains.bsp.bazel.server.sync.languages.rust.RustModule
+import org.jetbrains.bsp.bazel.server.sync.languages.scala.ScalaModule
+import org.jetbrains.bsp.bazel.server.sync.languages.scala.ScalaSdk
+import org.jetbrains.bsp.bazel.server.sync.languages.thrift.ThriftModule
+import org.jetbrains.bsp.protocol.AndroidTargetType
+import org.jetbrains.bsp.protocol.EnhancedSourceItemData
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.net.URI
+
+/**
+ * Compact binary encoding of [Project] used by [FileProjectStorage].
+ *
+ * Every distinct string (labels, URIs, options) is written only once and referenced by its index afterwards,
+ * so the snapshot stays small and the loaded model shares string instances just like a freshly synced one.
+ * Bump [FORMAT_VERSION] whenever the layout or any of the serialized model classes change.
+ */
+object ProjectSnapshotCodec {
+  const val FORMAT_VERSION = 1
+
+  fun write(project: Project, output: DataOutputStream) = SnapshotWriter(output).writeProject(project)
+
+  fun read(input: DataInputStream): Project = SnapshotReader(input).readProject()
+}
+
+private const val NEW_STRING = -1
+private const val NULL_VALUE = -2
+
+private const val JAVA_MODULE = 1
+private const val SCALA_MODULE = 2
+private const val KOTLIN_MODULE = 3
+private const val ANDROID_MODULE = 4
+private const val CPP_MODULE = 5
+private const val PYTHON_MODULE = 6
+private const val RUST_MODULE = 7
+private const val GO_MODULE = 8
+private const val THRIFT_MODULE = 9
+
+private class SnapshotWriter(private val output: DataOutputStream) {
+  private val stringIds = HashMap<String, Int>()
+
+  fun writeProject(project: Project) {
+    writeUri(project.workspaceRoot)
+    writeCollection(project.modules, ::writeModule)
+    writeMap(project.sourceToTarget, ::writeUri, ::writeLabel)
+    writeMap(project.libraries, ::writeLabel, ::writeLibrary)
+    writeMap(project.goLibraries, ::writeLabel, ::writeGoLibrary)
+    writeCollection(project.invalidTargets, ::writeLabel)
+    writeCollection(project.nonModuleTargets, ::writeNonModuleTarget)
+    output.writeInt(project.bazelRelease.major)
+  }
+
+  private fun writeModule(module: Module) {
+    writeLabel(module.label)
+    output.writeBoolean(module.isSynthetic)
+    writeCollection(module.directDependencies, ::writeLabel)
+    writeCollection(module.languages) { output.writeInt(it.ordinal) }
+    writeCollection(module.tags) { output.writeInt(it.ordinal) }
+    writeUri(module.baseDirectory)
+    writeSourceSet(module.sourceSet)
+    writeCollection(module.resources, ::writeUri)
+    writeCollection(module.outputs, ::writeUri)
+    writeCollection(module.sourceDependencies, ::writeUri)
+    writeNullable(module.languageData, ::writeLanguageData)
+    writeMap(module.environmentVariables, ::writeString, ::writeString)
+  }
+
+  private fun writeSourceSet(sourceSet: SourceSet) {
+    writeCollection(sourceSet.sources, ::writeSourceWithData)
+    writeCollection(sourceSet.generatedSources, ::writeSourceWithData)
+    writeCollection(sourceSet.sourceRoots, ::writeUri)
+  }
+
+  private fun writeSourceWithData(source: SourceWithData) {
+    writeUri(source.source)
+    writeNullableString(source.data?.jvmPackagePrefix)
+  }
+
+  private fun writeLibrary(library: Library) {
+    writeLabel(library.label)
+    writeCollection(library.outputs, ::writeUri)
+    writeCollection(library.sources, ::writeUri)
+    writeCollection(library.dependencies, ::writeLabel)
+    writeCollection(library.interfaceJars, ::writeUri)
+    output.writeBoolean(library.keepNonExistentJars)
+  }
+
+  private fun writeGoLibrary(library: GoLibrary) {
+    writeLabel(library.label)
+    writeNullableString(library.goImportPath)
+    writeNullable(library.goRoot, ::writeUri)
+  }
+
+  private fun writeNonModuleTarget(target: NonModuleTarget) {
+    writeLabel(target.label)
+    writeCollection(target.languages) { output.writeInt(it.ordinal) }
+    writeCollection(target.tags) { output.writeInt(it.ordinal) }
+    writeUri(target.baseDirectory)
+  }
+
+  private fun writeLanguageData(data: LanguageData) {
+    when (data) {
+      is JavaModule -> {
+        output.writeInt(JAVA_MODULE)
+        writeJavaModule(data)
+      }
+      is ScalaModule -> {
+        output.writeInt(SCALA_MODULE)
+        writeScalaSdk(data.sdk)
+        writeStrings(data.scalacOpts)
+        writeNullable(data.javaModule, ::writeJavaModule)
+      }
+      is KotlinModule -> {
+        output.writeInt(KOTLIN_MODULE)
+        writeKotlinModule(data)
+      }
+      is AndroidModule -> {
+        output.writeInt(ANDROID_MODULE)
+        writeUri(data.androidJar)
+        output.writeInt(data.androidTargetType.ordinal)
+        writeNullable(data.manifest, ::writeUri)
+        writeCollection(data.resourceDirectories, ::writeUri)
+        writeNullableString(data.resourceJavaPackage)
+        writeCollection(data.assetsDirectories, ::writeUri)
+        writeNullable(data.javaModule, ::writeJavaModule)
+        writeNullable(data.kotlinModule, ::writeKotlinModule)
+      }
+      is CppModule -> {
+        output.writeInt(CPP_MODULE)
+        writeStrings(data.copts)
+        writeStrings(data.defines)
+        writeStrings(data.linkOpts)
+        output.writeBoolean(data.linkShared)
+      }
+      is PythonModule -> {
+        output.writeInt(PYTHON_MODULE)
+        writeNullable(data.interpreter, ::writeUri)
+        writeNullableString(data.version)
+      }
+      is RustModule -> {
+        output.writeInt(RUST_MODULE)
+        writeRustModule(data)
+      }
+      is GoModule -> {
+        output.writeInt(GO_MODULE)
+        writeNullable(data.sdkHomePath, ::writeUri)
+        writeString(data.importPath)
+        writeCollection(data.generatedSources, ::writeUri)
+        writeCollection(data.generatedLibraries, ::writeUri)
+      }
+      is ThriftModule -> output.writeInt(THRIFT_MODULE)
+      else -> error("Unsupported language data in project snapshot: ${data::class.java.name}")
+    }
+  }
+
+  private fun writeJavaModule(module: JavaModule) {
+    writeJdk(module.jdk)
+    writeNullable(module.runtimeJdk, ::writeJdk)
+    writeStrings(module.javacOpts)
+    writeStrings(module.jvmOps)
+    writeUri(module.mainOutput)
+    writeCollection(module.binaryOutputs, ::writeUri)
+    writeNullableString(module.mainClass)
+    writeStrings(module.args)
+  }
+
+  private fun writeJdk(jdk: Jdk) {
+    writeString(jdk.version)
+    writeNullable(jdk.javaHome, ::writeUri)
+  }
+
+  private fun writeScalaSdk(sdk: ScalaSdk) {
+    writeString(sdk.organization)
+    writeString(sdk.version)
+    writeString(sdk.binaryVersion)
+    writeCollection(sdk.compilerJars, ::writeUri)
+  }
+
+  private fun writeKotlinModule(module: KotlinModule) {
+    writeString(module.languageVersion)
+    writeString(module.apiVersion)
+    writeStrings(module.kotlincOptions)
+    writeCollection(module.associates, ::writeLabel)
+    writeNullable(module.javaModule, ::writeJavaModule)
+  }
+
+  private fun writeRustModule(module: RustModule) {
+    writeString(module.crateId)
+    output.writeInt(module.location.ordinal)
+    output.writeBoolean(module.fromWorkspace)
+    writeString(module.name)
+    writeString(module.kind)
+    writeString(module.edition)
+    writeStrings(module.crateFeatures)
+    writeStrings(module.dependenciesCrateIds)
+    writeString(module.crateRoot)
+    writeString(module.version)
+    writeStrings(module.procMacroArtifacts)
+    output.writeBoolean(module.isExternalModule)
+  }
+
+  private fun writeLabel(label: Label) = writeString(label.value)
+
+  private fun writeUri(uri: URI) = writeString(uri.toString())
+
+  private fun writeStrings(values: Collection<String>) = writeCollection(values, ::writeString)
+
+  private fun writeNullableString(value: String?) {
+    if (value == null) {
+      output.writeInt(NULL_VALUE)
+    } else {
+      writeString(value)
+    }
+  }
+
+  private fun writeString(value: String) {
+    val id = stringIds[value]
+    if (id != null) {
+      output.writeInt(id)
+    } else {
+      stringIds[value] = stringIds.size
+      val bytes = value.toByteArray(Charsets.UTF_8)
+      output.writeInt(NEW_STRING)
+      output.writeInt(bytes.size)
+      output.write(bytes)
+    }
+  }
+
+  private fun <T> writeNullable(value: T?, writeValue: (T) -> Unit) {
+    output.writeBoolean(value != null)
+    value?.let(writeValue)
+  }
+
+  private fun <T> writeCollection(values: Collection<T>, writeValue: (T) -> Unit) {
+    output.writeInt(values.size)
+    values.forEach(writeValue)
+  }
+
+  private fun <K, V> writeMap(
+    values: Map<K, V>,
+    writeKey: (K) -> Unit,
+    writeValue: (V) -> Unit,
+  ) {
+    output.writeInt(values.size)
+    values.forEach { (key, value) ->
+      writeKey(key)
+      writeValue(value)
+    }
+  }
+}
+
+private class SnapshotReader(private val input: DataInputStream) {
+  private val strings = ArrayList<String>()
+  private val languages = Language.entries
+  private val tags = Tag.entries
+
+  fun readProject(): Project =
+    Project(
+      workspaceRoot = readUri(),
+      modules = readList(::readModule),
+      sourceToTarget = readMap(::readUri, ::readLabel),
+      libraries = readMap(::readLabel, ::readLibrary),
+      goLibraries = readMap(::readLabel, ::readGoLibrary),
+      invalidTargets = readList(::readLabel),
+      nonModuleTargets = readList(::readNonModuleTarget),
+      bazelRelease = BazelRelease(input.readInt()),
+    )
+
+  private fun readModule(): Module =
+    Module(
+      label = readLabel(),
+      isSynthetic = input.readBoolean(),
+      directDependencies = readList(::readLabel),
+      languages = readSet { languages[input.readInt()] },
+      tags = readSet { tags[input.readInt()] },
+      baseDirectory = readUri(),
+      sourceSet = readSourceSet(),
+      resources = readSet(::readUri),
+      outputs = readSet(::readUri),
+      sourceDependencies = readSet(::readUri),
+      languageData = readNullable(::readLanguageData),
+      environmentVariables = readMap(::readString, ::readString),
+    )
+
+  private fun readSourceSet(): SourceSet =
+    SourceSet(
+      sources = readSet(::readSourceWithData),
+      generatedSources = readSet(::readSourceWithData),
+      sourceRoots = readSet(::readUri),
+    )
+
+  private fun readSourceWithData(): SourceWithData =
+    SourceWithData(
+      source = readUri(),
+      data = readNullableString()?.let { EnhancedSourceItemData(it) },
+    )
+
+  private fun readLibrary(): Library =
+    Library(
+      label = readLabel(),
+      outputs = readSet(::readUri),
+      sources = readSet(::readUri),
+      dependencies = readList(::readLabel),
+      interfaceJars = readSet(::readUri),
+      keepNonExistentJars = input.readBoolean(),
+    )
+
+  private fun readGoLibrary(): GoLibrary =
+    GoLibrary(
+      label = readLabel(),
+      goImportPath = readNullableString(),
+      goRoot = readNullable(::readUri),
+    )
+
+  private fun readNonModuleTarget(): NonModuleTarget =
+    NonModuleTarget(
+      label = readLabel(),
+      languages = readSet { languages[input.readInt()] },
+      tags = readSet { tags[input.readInt()] },
+      baseDirectory = readUri(),
+    )
+
+  private fun readLanguageData(): LanguageData =
+    when (val kind = input.readInt()) {
+      JAVA_MODULE -> readJavaModule()
+      SCALA_MODULE ->
+        ScalaModule(
+          sdk = readScalaSdk(),
+          scalacOpts = readStrings(),
+          javaModule = readNullable(::readJavaModule),
+        )
+      KOTLIN_MODULE -> readKotlinModule()
+      ANDROID_MODULE ->
+        AndroidModule(
+          androidJar = readUri(),
+          androidTargetType = AndroidTargetType.entries[input.readInt()],
+          manifest = readNullable(::readUri),
+          resourceDirectories = readList(::readUri),
+          resourceJavaPackage = readNullableString(),
+          assetsDirectories = readList(::readUri),
+          javaModule = readNullable(::readJavaModule),
+          kotlinModule = readNullable(::readKotlinModule),
+        )
+      CPP_MODULE ->
+        CppModule(
+          copts = readStrings(),
+          defines = readStrings(),
+          linkOpts = readStrings(),
+          linkShared = input.readBoolean(),
+        )
+      PYTHON_MODULE ->
+        PythonModule(
+          interpreter = readNullable(::readUri),
+          version = readNullableString(),
+        )
+      RUST_MODULE -> readRustModule()
+      GO_MODULE ->
+        GoModule(
+          sdkHomePath = readNullable(::readUri),
+          importPath = readString(),
+          generatedSources = readList(::readUri),
+          generatedLibraries = readList(::readUri),
+        )
+      THRIFT_MODULE -> ThriftModule()
+      else -> error("Unknown language data kind in project snapshot: $kind")
+    }
+
+  private fun readJavaModule(): JavaModule =
+    JavaModule(
+      jdk = readJdk(),
+      runtimeJdk = readNullable(::readJdk),
+      javacOpts = readStrings(),
+      jvmOps = readStrings(),
+      mainOutput = readUri(),
+      binaryOutputs = readList(::readUri),
+      mainClass = readNullableString(),
+      args = readStrings(),
+    )
+
+  private fun readJdk(): Jdk = Jdk(version = readString(), javaHome = readNullable(::readUri))
+
+  private fun readScalaSdk(): ScalaSdk =
+    ScalaSdk(
+      organization = readString(),
+      version = readString(),
+      binaryVersion = readString(),
+      compilerJars = readList(::readUri),
+    )
+
+  private fun readKotlinModule(): KotlinModule =
+    KotlinModule(
+      languageVersion = readString(),
+      apiVersion = readString(),
+      kotlincOptions = readStrings(),
+      associates = readList(::readLabel),
+      javaModule = readNullable(::readJavaModule),
+    )
+
+  private fun readRustModule(): RustModule =
+    RustModule(
+      crateId = readString(),
+      location = RustCrateLocation.entries[input.readInt()],
+      fromWorkspace = input.readBoolean(),
+      name = readString(),
+      kind = readString(),
+      edition = readString(),
+      crateFeatures = readStrings(),
+      dependenciesCrateIds = readStrings(),
+      crateRoot = readString(),
+      version = readString(),
+      procMacroArtifacts = readStrings(),
+      isExternalModule = input.readBoolean(),
+    )
+
+  private fun readLabel(): Label = Label.parse(readString())
+
+  private fun readUri(): URI = URI.create(readString())
+
+  private fun readStrings(): List<String> = readList(::readString)
+
+  private fun readNullableString(): String? = readStringOrNull()
+
+  private fun readString(): String = readStringOrNull() ?: error("Unexpected null string in project snapshot")
+
+  private fun readStringOrNull(): String? =
+    when (val id = input.readInt()) {
+      NULL_VALUE -> null
+      NEW_STRING -> {
+        val bytes = ByteArray(input.readInt())
+        input.readFully(bytes)
+        String(bytes, Charsets.UTF_8).also { strings.add(it) }
+      }
+      else -> strings[id]
+    }
+
+  private fun <T> readNullable(readValue: () -> T): T? = if (input.readBoolean()) readValue() else null
+
+  private fun <T> readList(readValue: () -> T): List<T> = List(input.readInt()) { readValue() }
+
+  private fun <T> readSet(readValue: () -> T): Set<T> {
+    val size = input.readInt()
+    return (0 until size).mapTo(LinkedHashSet(size)) { readValue() }
+  }
+
+  private fun <K, V> readMap(readKey: () -> K, readValue: () -> V): Map<K, V> {
+    val size = input.readInt()
+    val result = LinkedHashMap<K, V>(size)
+    repeat(size) {
+      val key = readKey()
+      result[key] = readValue()
+    }
+    return result
+  }
+}
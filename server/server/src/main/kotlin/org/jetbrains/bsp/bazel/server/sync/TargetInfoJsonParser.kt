@@ -0,0 +1,106 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.protobuf.ByteString
+import com.google.protobuf.Descriptors.FieldDescriptor
+import com.google.protobuf.Message
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import java.io.Reader
+
+/**
+ * Reads the JSON written by `bsp_target_info_aspect` (Starlark `json.encode`) straight into [TargetInfo] builders,
+ * without building an intermediate JSON tree.
+ *
+ * Starlark keeps the proto field names, so every field is looked up in the message descriptor.
+ * Unknown fields and `null` values are skipped, the same way the text format parser is configured to do.
+ */
+object TargetInfoJsonParser {
+  fun parse(reader: Reader): TargetInfo {
+    val builder = TargetInfo.newBuilder()
+    JsonReader(reader).use { mergeMessage(it, builder) }
+    return builder.build()
+  }
+
+  private fun mergeMessage(reader: JsonReader, builder: Message.Builder) {
+    val descriptor = builder.descriptorForType
+    reader.beginObject()
+    while (reader.hasNext()) {
+      val field = descriptor.findFieldByName(reader.nextName())
+      when {
+        field == null || reader.peek() == JsonToken.NULL -> reader.skipValue()
+        field.isMapField -> mergeMapField(reader, builder, field)
+        field.isRepeated -> mergeRepeatedField(reader, builder, field)
+        else -> builder.setField(field, readValue(reader, builder, field))
+      }
+    }
+    reader.endObject()
+  }
+
+  private fun mergeRepeatedField(
+    reader: JsonReader,
+    builder: Message.Builder,
+    field: FieldDescriptor,
+  ) {
+    reader.beginArray()
+    while (reader.hasNext()) {
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue()
+      } else {
+        builder.addRepeatedField(field, readValue(reader, builder, field))
+      }
+    }
+    reader.endArray()
+  }
+
+  private fun mergeMapField(
+    reader: JsonReader,
+    builder: Message.Builder,
+    field: FieldDescriptor,
+  ) {
+    val keyField = field.messageType.findFieldByName("key")
+    val valueField = field.messageType.findFieldByName("value")
+    require(keyField.javaType == FieldDescriptor.JavaType.STRING) { "Only string keys are supported, got ${field.fullName}" }
+    reader.beginObject()
+    while (reader.hasNext()) {
+      val entry = builder.newBuilderForField(field)
+      entry.setField(keyField, reader.nextName())
+      if (reader.peek() == JsonToken.NULL) {
+        reader.skipValue()
+      } else {
+        entry.setField(valueField, readValue(reader, entry, valueField))
+      }
+      builder.addRepeatedField(field, entry.build())
+    }
+    reader.endObject()
+  }
+
+  private fun readValue(
+    reader: JsonReader,
+    builder: Message.Builder,
+    field: FieldDescriptor,
+  ): Any =
+    when (field.javaType) {
+      FieldDescriptor.JavaType.MESSAGE -> builder.newBuilderForField(field).also { mergeMessage(reader, it) }.build()
+      FieldDescriptor.JavaType.STRING -> reader.nextString()
+      FieldDescriptor.JavaType.BOOLEAN -> reader.nextBoolean()
+      FieldDescriptor.JavaType.INT -> reader.nextInt()
+      FieldDescriptor.JavaType.LONG -> reader.nextLong()
+      FieldDescriptor.JavaType.FLOAT -> reader.nextDouble().toFloat()
+      FieldDescriptor.JavaType.DOUBLE -> reader.nextDouble()
+      FieldDescriptor.JavaType.BYTE_STRING -> ByteString.copyFromUtf8(reader.nextString())
+      FieldDescriptor.JavaType.ENUM -> readEnum(reader, field)
+    }
+
+  // the aspect writes enums as their numbers, but names are accepted too
+  private fun readEnum(reader: JsonReader, field: FieldDescriptor): Any {
+    val enumType = field.enumType
+    val value =
+      if (reader.peek() == JsonToken.NUMBER) {
+        enumType.findValueByNumber(reader.nextInt())
+      } else {
+        enumType.findValueByName(reader.nextString())
+      }
+    return value ?: enumType.values.first()
+  }
+}
@@ -1,6 +1,7 @@
 package org.jetbrains.bsp.bazel.server.sync
 
 import com.google.protobuf.TextFormat
+import io.opentelemetry.api.trace.Span
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
@@ -8,15 +9,40 @@ import kotlinx.coroutines.runBlocking
 import okio.IOException
 import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
 import org.jetbrains.bsp.bazel.logger.BspClientLogger
+import org.jetbrains.bsp.bazel.server.benchmark.meter
+import org.jetbrains.bsp.bazel.server.benchmark.openTelemetryInitialized
 import org.jetbrains.bsp.bazel.server.model.Label
+import java.io.CharArrayReader
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
 import java.nio.file.Path
-import kotlin.io.path.reader
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.io.path.name
 
 class TargetInfoReader(private val bspClientLogger: BspClientLogger) {
+  private data class FileStamp(val lastModifiedTime: FileTime, val size: Long)
+
+  private data class ParsedAspectOutput(val stamp: FileStamp, val targetInfo: TargetInfo)
+
+  /**
+   * Aspect outputs parsed during the previous syncs. Bazel rewrites only the outputs of targets that changed,
+   * so all the other files can be served from here instead of being parsed again.
+   */
+  private val parsedAspectOutputs = ConcurrentHashMap<Path, ParsedAspectOutput>()
+
+  private val filesPerSecondGauge by lazy { meter.gaugeBuilder("aspect.outputs.read.files.per.second").ofLongs().build() }
+  private val mbPerSecondGauge by lazy { meter.gaugeBuilder("aspect.outputs.read.mb.per.second").ofLongs().build() }
+
   fun readTargetMapFromAspectOutputs(files: Set<Path>): Map<Label, TargetInfo> =
-    runBlocking(Dispatchers.Default) {
-      files.map { file -> async { readFromFile(file) } }.awaitAll()
-    }.asSequence()
+    readAllAspectOutputs(files)
+      .asSequence()
       .filterNotNull()
       .groupBy { it.id }
       // If any aspect has already been run on the build graph, it created shadow graph
@@ -31,22 +57,108 @@ class TargetInfoReader(private val bspClientLogger: BspClientLogger) {
         it.value.filter(TargetInfo::hasJvmTargetInfo).minByOrNull { targetInfo -> targetInfo.serializedSize } ?: it.value.first()
       }.mapKeys { Label.parse(it.key) }
 
-  private fun readFromFile(file: Path): TargetInfo? {
-    val builder = TargetInfo.newBuilder()
-    val parser =
+  private fun readAllAspectOutputs(files: Set<Path>): List<TargetInfo?> {
+    parsedAspectOutputs.keys.retainAll(files)
+    val statistics = ReadStatistics()
+    val startTime = System.nanoTime()
+    // bsp-info files are tiny, so they are read in batches to avoid paying the coroutine and dispatch overhead per file;
+    // reading blocks on I/O (which is slow on network file systems), hence the IO dispatcher
+    val targetInfos =
+      runBlocking(Dispatchers.IO) {
+        files
+          .chunked(BATCH_SIZE)
+          .map { batch -> async { BatchReader(statistics).read(batch) } }
+          .awaitAll()
+          .flatten()
+      }
+    statistics.report(System.nanoTime() - startTime)
+    return targetInfos
+  }
+
+  private inner class ReadStatistics {
+    val filesRead = AtomicLong()
+    val bytesRead = AtomicLong()
+    val filesFromCache = AtomicLong()
+
+    fun report(durationNanos: Long) {
+      Span
+        .current()
+        .setAttribute("files.read", filesRead.get())
+        .setAttribute("files.from.cache", filesFromCache.get())
+        .setAttribute("bytes.read", bytesRead.get())
+      if (!openTelemetryInitialized) return
+      val seconds = durationNanos.coerceAtLeast(1) / 1_000_000_000.0
+      filesPerSecondGauge.set((filesRead.get() / seconds).toLong())
+      mbPerSecondGauge.set((bytesRead.get() / MB / seconds).toLong())
+    }
+  }
+
+  /** Reads one batch of aspect outputs on a single worker, sharing the parser between all files of the batch. */
+  private inner class BatchReader(private val statistics: ReadStatistics) {
+    private val textProtoParser by lazy {
       TextFormat.Parser
         .newBuilder()
         .setAllowUnknownFields(true)
         .build()
-    try {
-      file.reader().use {
-        parser.merge(it, builder)
+    }
+
+    fun read(files: List<Path>): List<TargetInfo?> = files.map(::readFromFileOrCache)
+
+    private fun readFromFileOrCache(file: Path): TargetInfo? {
+      val stamp = fileStamp(file) ?: return readFromFile(file)
+      parsedAspectOutputs[file]?.takeIf { it.stamp == stamp }?.let {
+        statistics.filesFromCache.incrementAndGet()
+        return it.targetInfo
+      }
+      return readFromFile(file)?.also { parsedAspectOutputs[file] = ParsedAspectOutput(stamp, it) }
+    }
+
+    private fun readFromFile(file: Path): TargetInfo? =
+      try {
+        val content = readContent(file)
+        if (file.name.endsWith(TEXT_PROTO_SUFFIX)) {
+          TargetInfo.newBuilder().also { textProtoParser.merge(content, it) }.build()
+        } else {
+          TargetInfoJsonParser.parse(CharArrayReader(content.array(), content.arrayOffset(), content.remaining()))
+        }
+      } catch (e: IOException) {
+        // Can happen if one output path is a prefix of another, then Bazel can't create both
+        bspClientLogger.error("[WARN] Could not read target info $file: ${e.message}")
+        null
+      } catch (e: IllegalStateException) {
+        // JsonReader reports unexpected tokens this way
+        bspClientLogger.error("[WARN] Could not parse target info $file: ${e.message}")
+        null
       }
+
+    // large files are mapped instead of being copied into a heap buffer first
+    private fun readContent(file: Path): CharBuffer =
+      FileChannel.open(file, StandardOpenOption.READ).use { channel ->
+        val size = channel.size()
+        val bytes =
+          if (size >= MMAP_THRESHOLD_BYTES) {
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+          } else {
+            ByteBuffer.wrap(Channels.newInputStream(channel).readAllBytes())
+          }
+        statistics.filesRead.incrementAndGet()
+        statistics.bytesRead.addAndGet(bytes.remaining().toLong())
+        Charsets.UTF_8.decode(bytes)
+      }
+  }
+
+  private fun fileStamp(file: Path): FileStamp? =
+    try {
+      val attributes = Files.readAttributes(file, BasicFileAttributes::class.java)
+      FileStamp(attributes.lastModifiedTime(), attributes.size())
     } catch (e: IOException) {
-      // Can happen if one output path is a prefix of another, then Bazel can't create both
-      bspClientLogger.error("[WARN] Could not read target info $file: ${e.message}")
-      return null
+      null
     }
-    return builder.build()
+
+  companion object {
+    private const val TEXT_PROTO_SUFFIX = ".textproto"
+    private const val BATCH_SIZE = 256
+    private const val MMAP_THRESHOLD_BYTES = 1L shl 20
+    private const val MB = 1024 * 1024
   }
 }
@@ -0,0 +1,90 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import org.jetbrains.bsp.bazel.server.model.Label
+import java.nio.file.Path
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * For every node reachable from [roots], the set of [jars] which belong to the node itself or to any of its
+ * transitive dependencies.
+ *
+ * The sets are bitsets over dense jar ids, computed once per node in a single post-order pass (dependencies first),
+ * so long dependency chains neither recurse nor copy sets. A node which adds no jars of its own to the set
+ * of its only dependency shares that dependency's bitset. Dependency cycles are not expected - an edge closing
+ * a cycle is ignored.
+ */
+internal class TransitiveJarsIndex(
+  jars: Collection<Path>,
+  roots: Collection<Label>,
+  private val ownJars: (Label) -> Collection<Path>,
+  private val dependencies: (Label) -> Collection<Label>,
+) {
+  private val jarIds = HashMap<Path, Int>(jars.size * 2).apply { jars.forEach { putIfAbsent(it, size) } }
+  private val words = (jarIds.size + 63) ushr 6
+  private val closures = HashMap<Label, LongArray>()
+
+  init {
+    roots.forEach(::computeClosures)
+  }
+
+  /** Memory taken by the distinct bitsets, for telemetry. */
+  val retainedBytes: Long
+    get() {
+      val distinctClosures = Collections.newSetFromMap(IdentityHashMap<LongArray, Boolean>()).apply { addAll(closures.values) }
+      return distinctClosures.sumOf { it.size.toLong() * Long.SIZE_BYTES }
+    }
+
+  fun contains(node: Label, jar: Path): Boolean {
+    val bits = closures[node] ?: return false
+    val id = jarIds[jar] ?: return false
+    return bits.has(id)
+  }
+
+  private class Frame(val node: Label, val dependencies: List<Label>) {
+    var next = 0
+  }
+
+  private fun computeClosures(root: Label) {
+    if (root in closures) return
+    val inProgress = HashSet<Label>()
+    val stack = ArrayDeque<Frame>()
+    inProgress.add(root)
+    stack.addLast(Frame(root, dependencies(root).toList()))
+    while (stack.isNotEmpty()) {
+      val frame = stack.last()
+      if (frame.next < frame.dependencies.size) {
+        val dependency = frame.dependencies[frame.next++]
+        if (dependency !in closures && inProgress.add(dependency)) {
+          stack.addLast(Frame(dependency, dependencies(dependency).toList()))
+        }
+      } else {
+        stack.removeLast()
+        inProgress.remove(frame.node)
+        closures[frame.node] = closureOf(frame.node, frame.dependencies)
+      }
+    }
+  }
+
+  private fun closureOf(node: Label, nodeDependencies: List<Label>): LongArray {
+    val ownJarIds = ownJars(node).mapNotNull(jarIds::get)
+    // arrays compare by identity, so this drops dependencies sharing the same bitset
+    val dependencyClosures = nodeDependencies.mapNotNull { closures[it] }.filter { it !== EMPTY }.distinct()
+    if (dependencyClosures.size <= 1) {
+      val onlyClosure = dependencyClosures.firstOrNull() ?: EMPTY
+      if (ownJarIds.all { onlyClosure.has(it) }) return onlyClosure
+    }
+    val bits = LongArray(words)
+    for (closure in dependencyClosures) {
+      for (i in closure.indices) bits[i] = bits[i] or closure[i]
+    }
+    ownJarIds.forEach { bits[it ushr 6] = bits[it ushr 6] or (1L shl it) }
+    return bits
+  }
+
+  private fun LongArray.has(id: Int): Boolean = (id ushr 6) < size && this[id ushr 6] and (1L shl id) != 0L
+
+  companion object {
+    private val EMPTY = LongArray(0)
+  }
+}
@@ -9,6 +9,13 @@ import java.nio.file.Paths
 
 object JVMLanguagePluginParser {
   private val PACKAGE_PATTERN = Regex("^\\s*package\\s+([\\p{L}0-9_.]+)")
+
+  // imports and declarations (including a Scala package object) which may not be followed by a package clause
+  private val DECLARATION_PATTERN =
+    Regex(
+      "^(import|package\\s+object|class|interface|enum|record|object|trait|fun|val|var|def|type|typealias|" +
+        "public|protected|private|internal|abstract|final|sealed|open|data|case|implicit|lazy)\\b",
+    )
   private val ONE_BYTE_CHARSET = Charset.forName("ISO-8859-1")
 
   fun calculateJVMSourceRootAndAdditionalData(source: Path, multipleLines: Boolean = false): SourceRootAndData {
@@ -26,23 +33,38 @@ object JVMLanguagePluginParser {
     return SourceRootAndData(sourceRoot, data = EnhancedSourceItemData(jvmPackagePrefix = sourcePackage))
   }
 
+  /**
+   * Package clauses have to precede imports and declarations, so only the header of the file is read -
+   * up to the first import or declaration.
+   */
   private fun findPackage(source: Path, multipleLines: Boolean): String? =
     File(source.toUri()).useLines(ONE_BYTE_CHARSET) { lines ->
       // Not using UTF-8 charset because it is slower to decode
-      val packages =
-        lines.mapNotNull { line ->
-          if (!line.trimStart().startsWith("package")) return@mapNotNull null
-          val decodedLine = line.toByteArray(ONE_BYTE_CHARSET).decodeToString()
-          PACKAGE_PATTERN
-            .find(decodedLine)
-            ?.groups
-            ?.get(1)
-            ?.value
+      val packages = mutableListOf<String>()
+      var inBlockComment = false
+      for (line in lines) {
+        val trimmedLine = line.trim()
+        when {
+          inBlockComment -> inBlockComment = !trimmedLine.contains("*/")
+          trimmedLine.startsWith("/*") -> inBlockComment = !trimmedLine.contains("*/")
+          DECLARATION_PATTERN.containsMatchIn(trimmedLine) -> break
+          else -> {
+            val sourcePackage = parsePackage(trimmedLine) ?: continue
+            if (!multipleLines) return sourcePackage
+            packages.add(sourcePackage)
+          }
         }
-      return if (multipleLines) {
-        packages.joinToString(".").takeIf { it.isNotEmpty() }
-      } else {
-        packages.firstOrNull()
       }
+      return packages.joinToString(".").takeIf { it.isNotEmpty() }
     }
+
+  private fun parsePackage(line: String): String? {
+    if (!line.startsWith("package")) return null
+    val decodedLine = line.toByteArray(ONE_BYTE_CHARSET).decodeToString()
+    return PACKAGE_PATTERN
+      .find(decodedLine)
+      ?.groups
+      ?.get(1)
+      ?.value
+  }
 }
@@ -23,7 +23,9 @@ class JavaLanguagePlugin(
 
   override fun prepareSync(targets: Sequence<TargetInfo>) {
     val ideJavaHomeOverride = workspaceContextProvider.currentWorkspaceContext().ideJavaHomeOverrideSpec.value
-    jdk = ideJavaHomeOverride?.let { Jdk(version = "ideJavaHomeOverride", javaHome = it.toUri()) } ?: jdkResolver.resolve(targets)
+    // resolved even with the override, as the runtime JDKs of the targets need the versions too
+    val resolvedJdk = jdkResolver.resolve(targets)
+    jdk = ideJavaHomeOverride?.let { Jdk(version = "ideJavaHomeOverride", javaHome = it.toUri()) } ?: resolvedJdk
   }
 
   override fun resolveModule(targetInfo: TargetInfo): JavaModule? =
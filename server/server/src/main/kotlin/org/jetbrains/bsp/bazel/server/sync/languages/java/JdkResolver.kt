@@ -6,8 +6,15 @@ import java.net.URI
 import kotlin.io.path.toPath
 
 class JdkResolver(private val bazelPathsResolver: BazelPathsResolver, private val jdkVersionResolver: JdkVersionResolver) {
+  /**
+   * Picks the JDK of the project, resolving the versions of the java homes of all [targets] once per sync,
+   * so that [resolveJdk] of every target reuses them.
+   */
   fun resolve(targets: Sequence<TargetInfo>): Jdk? {
-    val allCandidates = targets.mapNotNull { resolveJdkData(it) }.sortByFrequency().map { JdkCandidate(it) }
+    jdkVersionResolver.startSync()
+    // the versions are resolved eagerly, so they are all stored in the cache
+    val allCandidates = targets.mapNotNull { resolveJdkData(it) }.sortByFrequency().map { JdkCandidate(it) }.toList().asSequence()
+    jdkVersionResolver.store()
     if (allCandidates.none()) return null
     val latestVersion = candidatesWithLatestVersion(allCandidates)
     val complete = allCandidates.filter { it.isComplete }
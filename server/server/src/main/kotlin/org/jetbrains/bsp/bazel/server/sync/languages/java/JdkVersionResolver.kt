@@ -1,18 +1,74 @@
 package org.jetbrains.bsp.bazel.server.sync.languages.java
 
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
 import java.nio.file.Files
+import java.nio.file.NoSuchFileException
 import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
 import java.util.concurrent.ConcurrentHashMap
+import kotlin.io.path.createDirectories
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.inputStream
+import kotlin.io.path.outputStream
 
-class JdkVersionResolver {
-  private val versions = ConcurrentHashMap<Path, Int?>()
+/**
+ * Resolves the versions of java homes, either from their `release` file or by running `java -version`.
+ *
+ * Versions are kept in [cachePath] (if given) between syncs together with the size and modification time of the
+ * file they were read from, so a java home is only checked with a single `stat` per sync (started by [startSync])
+ * and read again only if that file changed. Entries of java homes not used during a sync are dropped by [store].
+ */
+class JdkVersionResolver(private val cachePath: Path? = null) {
+  private data class Stamp(val file: String, val size: Long, val lastModifiedMillis: Long)
 
-  fun resolve(path: Path): Int? = versions.computeIfAbsent(path.toRealPath()) { resolveJavaVersion(it) }
+  private class Entry(val stamp: Stamp?, val version: Int?)
+
+  private val entries: ConcurrentHashMap<String, Entry> by lazy { load() }
+
+  // java homes checked during the current sync, their versions are not validated again until the next one
+  private val checked = ConcurrentHashMap<Path, Entry>()
+
+  @Volatile
+  private var changed = false
+
+  /** Forgets which java homes were checked, so the next use of each of them notices if it changed. */
+  fun startSync() {
+    checked.clear()
+  }
+
+  fun resolve(path: Path): Int? = checked.computeIfAbsent(path, ::validatedEntry).version
+
+  private fun validatedEntry(path: Path): Entry {
+    val key = path.toString()
+    val stamp = stamp(path)
+    entries[key]?.takeIf { it.stamp == stamp }?.let { return it }
+
+    val entry = Entry(stamp, resolveJavaVersion(path))
+    entries[key] = entry
+    changed = true
+    return entry
+  }
+
+  private fun stamp(path: Path): Stamp? =
+    VERSION_FILES.firstNotNullOfOrNull { file ->
+      try {
+        val attributes = Files.readAttributes(path.resolve(file), BasicFileAttributes::class.java)
+        Stamp(file, attributes.size(), attributes.lastModifiedTime().toMillis())
+      } catch (_: NoSuchFileException) {
+        null
+      }
+    }
 
   private fun resolveJavaVersion(path: Path): Int? = readFromReleaseFile(path) ?: readByRunningJavaBinary(path)
 
   private fun readFromReleaseFile(path: Path): Int? {
-    val releasePath = path.resolve("release")
+    val releasePath = path.resolve(RELEASE_FILE)
     if (Files.notExists(releasePath)) return null
 
     val text = Files.readString(releasePath)
@@ -20,7 +76,7 @@ class JdkVersionResolver {
   }
 
   private fun readByRunningJavaBinary(path: Path): Int? {
-    val javaPath = path.resolve("bin/java")
+    val javaPath = path.resolve(JAVA_BINARY)
     if (Files.notExists(javaPath)) return null
 
     return firstLineOfJavaVersionOutput(javaPath)
@@ -51,4 +107,77 @@ class JdkVersionResolver {
       val version = match.groupValues[1].removePrefix("1.")
       return version.takeWhile { it != '.' }.toIntOrNull()
     }
+
+  /** Writes the versions of the java homes used during the current sync to disk (if anything changed) and forgets all the others. */
+  fun store() {
+    val used = checked.keys.mapTo(HashSet()) { it.toString() }
+    entries.keys.retainAll(used)
+    if (cachePath != null && (changed || entries.size != used.size)) {
+      write(cachePath)
+    }
+    changed = false
+  }
+
+  private fun load(): ConcurrentHashMap<String, Entry> {
+    val result = ConcurrentHashMap<String, Entry>()
+    if (cachePath == null || !cachePath.exists()) return result
+    try {
+      DataInputStream(BufferedInputStream(cachePath.inputStream())).use { input ->
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) return result
+        repeat(input.readInt()) {
+          val javaHome = input.readUTF()
+          val stamp = if (input.readBoolean()) Stamp(input.readUTF(), input.readLong(), input.readLong()) else null
+          val version = if (input.readBoolean()) input.readInt() else null
+          result[javaHome] = Entry(stamp, version)
+        }
+      }
+    } catch (e: IOException) {
+      cachePath.deleteIfExists()
+      result.clear()
+    } catch (e: RuntimeException) {
+      cachePath.deleteIfExists()
+      result.clear()
+    }
+    return result
+  }
+
+  private fun write(path: Path) {
+    val tempPath = path.resolveSibling("${path.fileName}.tmp")
+    try {
+      path.parent.createDirectories()
+      val snapshot = entries.toMap()
+      DataOutputStream(BufferedOutputStream(tempPath.outputStream())).use { output ->
+        output.writeInt(MAGIC)
+        output.writeInt(FORMAT_VERSION)
+        output.writeInt(snapshot.size)
+        for ((javaHome, entry) in snapshot) {
+          output.writeUTF(javaHome)
+          output.writeBoolean(entry.stamp != null)
+          entry.stamp?.let {
+            output.writeUTF(it.file)
+            output.writeLong(it.size)
+            output.writeLong(it.lastModifiedMillis)
+          }
+          output.writeBoolean(entry.version != null)
+          entry.version?.let(output::writeInt)
+        }
+      }
+      Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    } catch (e: IOException) {
+      // the cache is only an optimization, the next sync resolves the versions again
+      tempPath.deleteIfExists()
+    }
+  }
+
+  companion object {
+    const val FILE_NAME = "jdk-versions-cache.bin"
+    private const val MAGIC = 0x4A444B56 // "JDKV"
+    private const val FORMAT_VERSION = 1
+
+    private const val RELEASE_FILE = "release"
+    private const val JAVA_BINARY = "bin/java"
+
+    // the files a version can be read from, in the order they are tried
+    private val VERSION_FILES = listOf(RELEASE_FILE, JAVA_BINARY)
+  }
 }
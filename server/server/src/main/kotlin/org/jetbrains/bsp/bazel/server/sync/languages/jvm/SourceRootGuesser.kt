@@ -7,15 +7,16 @@ import java.nio.file.PathMatcher
 import java.nio.file.Paths
 
 object SourceRootGuesser {
+  // compiled once, as the guess is made for every source file without a package matching its path
+  private val sourceRootPattern =
+    FileSystems.getDefault().getPathMatcher(
+      "glob:**/" +
+        "{main,test,tests,src,3rdparty,3rd_party,thirdparty,third_party}/" +
+        "{*resources,scala,java,kotlin,jvm,proto,python,protobuf,py}",
+    )
+  private val defaultTestRootPattern = FileSystems.getDefault().getPathMatcher("glob:**/{test,tests}")
+
   fun getSourcesRoot(sourcePath: Path): Path {
-    val fs = FileSystems.getDefault()
-    val sourceRootPattern =
-      fs.getPathMatcher(
-        "glob:**/" +
-          "{main,test,tests,src,3rdparty,3rd_party,thirdparty,third_party}/" +
-          "{*resources,scala,java,kotlin,jvm,proto,python,protobuf,py}",
-      )
-    val defaultTestRootPattern = fs.getPathMatcher("glob:**/{test,tests}")
     val sourceRootGuess =
       sequenceOf(sourceRootPattern, defaultTestRootPattern)
         .mapNotNull { pattern: PathMatcher -> approximateSourceRoot(sourcePath, pattern) }
@@ -0,0 +1,82 @@
+package org.jetbrains.bsp.bazel.server.sync.languages.python
+
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import org.jetbrains.bsp.bazel.server.dependencygraph.DependencyGraph
+import org.jetbrains.bsp.bazel.server.model.Label
+import java.lang.ref.WeakReference
+import java.net.URI
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * External source roots (e.g. `site-packages` directories of pip repositories) of every target together with
+ * its transitive dependencies, for a single dependency graph.
+ *
+ * The targets of a workspace share most of their pip dependencies, so the closure of each target is computed
+ * once in a post-order pass (dependencies first) and reused by all targets depending on it. A target which adds
+ * no roots of its own to the closure of its only dependency shares that dependency's set.
+ * The graph is only weakly referenced, so the index does not keep it alive after the sync.
+ */
+internal class ExternalSourcesIndex(
+  dependencyGraph: DependencyGraph,
+  private val ownRoots: (TargetInfo) -> Set<URI>,
+) {
+  private val graph = WeakReference(dependencyGraph)
+  private val closures = ConcurrentHashMap<Label, Set<URI>>()
+
+  fun isFor(dependencyGraph: DependencyGraph): Boolean = graph.get() === dependencyGraph
+
+  /** Roots of the transitive dependencies of [target], the same as of [DependencyGraph.transitiveDependenciesWithoutRootTargets]. */
+  fun dependencySources(target: Label, dependencyGraph: DependencyGraph): Set<URI> {
+    val dependencies = dependencyGraph.directDependenciesWithoutRootTargets(target)
+    val dependencyClosures = distinctNonEmpty(dependencies.map { closure(it, dependencyGraph) })
+    return dependencyClosures.singleOrNull() ?: dependencyClosures.flatMapTo(HashSet()) { it }
+  }
+
+  private class Frame(val node: Label, val dependencies: List<Label>) {
+    var next = 0
+  }
+
+  private fun closure(root: Label, dependencyGraph: DependencyGraph): Set<URI> {
+    closures[root]?.let { return it }
+    // closures are computed concurrently by the modules being created, a closure computed twice is equal
+    val inProgress = HashSet<Label>()
+    val stack = ArrayDeque<Frame>()
+    inProgress.add(root)
+    stack.addLast(Frame(root, dependencyGraph.directDependencies(root)))
+    while (stack.isNotEmpty()) {
+      val frame = stack.last()
+      if (frame.next < frame.dependencies.size) {
+        val dependency = frame.dependencies[frame.next++]
+        if (!closures.containsKey(dependency) && inProgress.add(dependency)) {
+          stack.addLast(Frame(dependency, dependencyGraph.directDependencies(dependency)))
+        }
+      } else {
+        stack.removeLast()
+        inProgress.remove(frame.node)
+        closures.putIfAbsent(frame.node, closureOf(frame.node, frame.dependencies, dependencyGraph))
+      }
+    }
+    return closures.getValue(root)
+  }
+
+  // an edge closing a dependency cycle is ignored, as the closure of its target is not computed yet
+  private fun closureOf(
+    node: Label,
+    nodeDependencies: List<Label>,
+    dependencyGraph: DependencyGraph,
+  ): Set<URI> {
+    val own = dependencyGraph.targetInfo(node)?.let(ownRoots).orEmpty()
+    val dependencyClosures = distinctNonEmpty(nodeDependencies.mapNotNull { closures[it] })
+    if (dependencyClosures.size <= 1) {
+      val onlyClosure = dependencyClosures.firstOrNull() ?: emptySet()
+      if (onlyClosure.containsAll(own)) return onlyClosure
+    }
+    return HashSet<URI>(own).apply { dependencyClosures.forEach(::addAll) }
+  }
+
+  // sets are deduplicated by identity, so dependencies sharing the same closure are merged once
+  private fun distinctNonEmpty(sets: List<Set<URI>>): Collection<Set<URI>> =
+    Collections.newSetFromMap(IdentityHashMap<Set<URI>, Boolean>()).apply { sets.filterTo(this) { it.isNotEmpty() } }
+}
@@ -21,6 +21,9 @@ class PythonLanguagePlugin(private val bazelPathsResolver: BazelPathsResolver) :
   private var defaultInterpreter: URI? = null
   private var defaultVersion: String? = null
 
+  @Volatile
+  private var externalSourcesIndex: ExternalSourcesIndex? = null
+
   override fun prepareSync(targets: Sequence<TargetInfo>) {
     val defaultTargetInfo = calculateDefaultTargetInfo(targets)
     defaultInterpreter =
@@ -71,15 +74,23 @@ class PythonLanguagePlugin(private val bazelPathsResolver: BazelPathsResolver) :
 
   override fun dependencySources(targetInfo: TargetInfo, dependencyGraph: DependencyGraph): Set<URI> =
     if (targetInfo.hasPythonTargetInfo()) {
-      dependencyGraph
-        .transitiveDependenciesWithoutRootTargets(Label.parse(targetInfo.id))
-        .flatMap(::getExternalSources)
-        .map(::calculateExternalSourcePath)
-        .toSet()
+      externalSourcesIndex(dependencyGraph).dependencySources(Label.parse(targetInfo.id), dependencyGraph)
     } else {
       emptySet()
     }
 
+  // the index is shared by all targets of a sync, which is the lifetime of its dependency graph
+  private fun externalSourcesIndex(dependencyGraph: DependencyGraph): ExternalSourcesIndex {
+    externalSourcesIndex?.takeIf { it.isFor(dependencyGraph) }?.let { return it }
+    return synchronized(this) {
+      externalSourcesIndex?.takeIf { it.isFor(dependencyGraph) }
+        ?: ExternalSourcesIndex(dependencyGraph, ::externalSourceRoots).also { externalSourcesIndex = it }
+    }
+  }
+
+  private fun externalSourceRoots(targetInfo: TargetInfo): Set<URI> =
+    getExternalSources(targetInfo).map(::calculateExternalSourcePath).toSet()
+
   private fun getExternalSources(targetInfo: TargetInfo): List<FileLocation> =
     targetInfo.sourcesList.mapNotNull { it.takeIf { it.isExternal } }
 
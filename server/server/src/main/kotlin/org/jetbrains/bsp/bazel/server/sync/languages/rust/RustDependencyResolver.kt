@@ -13,11 +13,20 @@ data class RustDependencies(val dependencies: Map<String, List<RustDependency>>,
 class RustDependencyResolver(private val rustPackageResolver: RustPackageResolver) {
   // We need to resolve all dependencies and provide a list of new bazel targets
   // to be transformed into packages.
-  fun rustDependencies(rustPackages: List<RustPackage>, rustBspTargets: List<Module>): RustDependencies {
+  fun rustDependencies(
+    rustPackages: List<RustPackage>,
+    rustBspTargets: List<Module>,
+    targetsByPackage: Map<String, List<Module>> = rustPackageResolver.targetsByPackage(rustBspTargets),
+  ): RustDependencies {
     val associatedBspTargets = groupBspTargetsByPackage(rustBspTargets, rustPackages)
-    val associatedRawBspTargets = groupBspRawTargetsByPackage(rustBspTargets, rustPackages)
+    val associatedRawBspTargets = groupBspRawTargetsByPackage(targetsByPackage, rustPackages)
 
-    val rustDependencies = resolveDependencies(associatedBspTargets)
+    // the same crates are dependencies of many targets, so the package of each label is resolved only once
+    val dependencyPackages = HashMap<Label, BazelPackageTargetInfo>()
+    val rustDependencies =
+      resolveRustDependencies(associatedBspTargets) { rustPackage, directDependencies ->
+        resolveBspDependencies(rustPackage, directDependencies, dependencyPackages)
+      }
     val rustRawDependencies = resolveRawDependencies(associatedRawBspTargets)
 
     return RustDependencies(rustDependencies, rustRawDependencies)
@@ -32,18 +41,19 @@ class RustDependencyResolver(private val rustPackageResolver: RustPackageResolve
     }
   }
 
-  private fun groupBspRawTargetsByPackage(rustBspTargets: List<Module>, rustPackages: List<RustPackage>): Map<RustPackage, List<Module>> =
-    rustPackages.associateWith { pkg ->
-      rustBspTargets.filter { rustPackageResolver.resolvePackage(it).packageName == pkg.id }
-    }
-
-  private fun resolveDependencies(associatedBspTargets: Map<RustPackage, List<Module>>): Map<String, List<RustDependency>> =
-    resolveRustDependencies(associatedBspTargets, ::resolveBspDependencies)
+  private fun groupBspRawTargetsByPackage(
+    targetsByPackage: Map<String, List<Module>>,
+    rustPackages: List<RustPackage>,
+  ): Map<RustPackage, List<Module>> = rustPackages.associateWith { pkg -> targetsByPackage[pkg.id].orEmpty() }
 
-  private fun resolveBspDependencies(rustPackage: RustPackage, directDependencies: List<Label>): Pair<String, List<RustDependency>> {
+  private fun resolveBspDependencies(
+    rustPackage: RustPackage,
+    directDependencies: List<Label>,
+    dependencyPackages: MutableMap<Label, BazelPackageTargetInfo>,
+  ): Pair<String, List<RustDependency>> {
     val dependencies =
       directDependencies
-        .map { rustPackageResolver.resolvePackage(it) }
+        .map { dependencyPackages.getOrPut(it) { rustPackageResolver.resolvePackage(it) } }
         .map(::createDependency)
         .filter { rustPackage.id != it.pkg }
     return Pair(rustPackage.id, dependencies)
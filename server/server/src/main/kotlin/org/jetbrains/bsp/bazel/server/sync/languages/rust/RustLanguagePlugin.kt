@@ -65,8 +65,10 @@ class RustLanguagePlugin(private val bazelPathsResolver: BazelPathsResolver) : L
 
   fun toRustWorkspaceResult(requestTargets: List<Module>, allTargets: List<Module>): RustWorkspaceResult {
     val modules = findAllRelatedRustTargets(requestTargets, allTargets.associateBy { it.label })
-    val packages = rustPackageResolver.rustPackages(modules)
-    val (dependencies, rawDependencies) = rustDependencyResolver.rustDependencies(packages, modules)
+    // grouping the modules by package is the only step going over all of them, so it is done once for all steps
+    val targetsByPackage = rustPackageResolver.targetsByPackage(modules)
+    val packages = rustPackageResolver.rustPackages(targetsByPackage)
+    val (dependencies, rawDependencies) = rustDependencyResolver.rustDependencies(packages, modules, targetsByPackage)
     val resolvedTargets =
       packages
         .filter { it.origin == "WORKSPACE" }
@@ -127,6 +129,7 @@ class RustLanguagePlugin(private val bazelPathsResolver: BazelPathsResolver) : L
   ): List<Module> =
     dependencies
       .mapNotNull { allModules[it] }
-      .filter { it.label !in visited }
       .filter { Language.RUST in it.languages }
+      // marked as visited right away, so a module depended on by multiple targets of the same layer is added once
+      .filter { visited.add(it.label) }
 }
@@ -20,10 +20,12 @@ class RustPackageResolver(val bazelPathsResolver: BazelPathsResolver) {
     val preRelease: String? = "",
   )
 
-  fun rustPackages(rustBspTargets: List<Module>): List<RustPackage> =
-    rustBspTargets
-      .groupBy { resolvePackage(it).packageName }
-      .mapNotNull(::resolveSinglePackage)
+  fun rustPackages(rustBspTargets: List<Module>): List<RustPackage> = rustPackages(targetsByPackage(rustBspTargets))
+
+  fun rustPackages(targetsByPackage: Map<String, List<Module>>): List<RustPackage> = targetsByPackage.map(::resolveSinglePackage)
+
+  /** Groups the targets by their package in a single pass, so it can be computed once and shared by all resolution steps. */
+  fun targetsByPackage(rustBspTargets: List<Module>): Map<String, List<Module>> = rustBspTargets.groupBy { resolvePackage(it).packageName }
 
   fun resolvePackage(rustTarget: Module): BazelPackageTargetInfo = resolvePackage(rustTarget.label)
 
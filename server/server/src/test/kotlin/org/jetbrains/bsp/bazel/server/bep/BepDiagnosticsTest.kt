@@ -6,9 +6,13 @@ import ch.epfl.scala.bsp4j.LogMessageParams
 import ch.epfl.scala.bsp4j.PrintParams
 import ch.epfl.scala.bsp4j.PublishDiagnosticsParams
 import ch.epfl.scala.bsp4j.ShowMessageParams
+import ch.epfl.scala.bsp4j.TaskFinishDataKind
 import ch.epfl.scala.bsp4j.TaskFinishParams
 import ch.epfl.scala.bsp4j.TaskProgressParams
+import ch.epfl.scala.bsp4j.TaskStartDataKind
 import ch.epfl.scala.bsp4j.TaskStartParams
+import ch.epfl.scala.bsp4j.TestReport
+import ch.epfl.scala.bsp4j.TestTask
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos
 import org.jetbrains.bsp.bazel.bazelrunner.utils.BasicBazelInfo
 import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelRelease
@@ -18,9 +22,11 @@ import org.jetbrains.bsp.bazel.server.paths.BazelPathsResolver
 import org.jetbrains.bsp.protocol.JoinedBuildClient
 import org.jetbrains.bsp.protocol.PublishOutputParams
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
 import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.ValueSource
 import java.nio.file.Files
+import java.nio.file.Path
 import kotlin.io.path.Path
 
 class BepDiagnosticsTest {
@@ -37,11 +43,22 @@ class BepDiagnosticsTest {
 
     override fun onBuildTargetDidChange(p0: DidChangeBuildTarget?) {}
 
-    override fun onBuildTaskStart(p0: TaskStartParams?) {}
+    val buildTaskStarts: MutableList<TaskStartParams> = mutableListOf()
+    val buildTaskFinishes: MutableList<TaskFinishParams> = mutableListOf()
 
-    override fun onBuildTaskProgress(p0: TaskProgressParams?) {}
+    override fun onBuildTaskStart(p0: TaskStartParams) {
+      buildTaskStarts.add(p0)
+    }
+
+    val buildTaskProgress: MutableList<TaskProgressParams> = mutableListOf()
+
+    override fun onBuildTaskProgress(p0: TaskProgressParams) {
+      buildTaskProgress.add(p0)
+    }
 
-    override fun onBuildTaskFinish(p0: TaskFinishParams?) {}
+    override fun onBuildTaskFinish(p0: TaskFinishParams) {
+      buildTaskFinishes.add(p0)
+    }
 
     override fun onRunPrintStdout(p0: PrintParams?) {}
 
@@ -50,8 +67,13 @@ class BepDiagnosticsTest {
     override fun onBuildPublishOutput(params: PublishOutputParams) {}
   }
 
-  fun newBepServer(client: JoinedBuildClient): BepServer {
-    val workspaceRoot = Path("workspaceRoot")
+  private val workspaceRoot = Path("workspaceRoot")
+
+  fun newBepServer(
+    client: JoinedBuildClient,
+    diagnosticsService: DiagnosticsService = DiagnosticsService(workspaceRoot),
+    originId: String = "originId",
+  ): BepServer {
     val bazelInfo =
       BasicBazelInfo(
         execRoot = "execRoot",
@@ -62,8 +84,8 @@ class BepDiagnosticsTest {
       )
     return BepServer(
       bspClient = client,
-      diagnosticsService = DiagnosticsService(workspaceRoot),
-      originId = "originId",
+      diagnosticsService = diagnosticsService,
+      originId = originId,
       target = BuildTargetIdentifier("//target"),
       bazelPathsResolver = BazelPathsResolver(bazelInfo),
     )
@@ -170,4 +192,174 @@ src/build/NotCompiling.java:4: error: cannot find symbol
 
     assertEquals(1, client.buildPublishDiagnostics.size)
   }
+
+  @Test
+  fun `every failed build publishes its diagnostics even if they did not change`() {
+    // given
+    val client = MockBuildClient()
+    // shared by the builds, as in BazelBspCompilationManager
+    val diagnosticsService = DiagnosticsService(workspaceRoot)
+    val stderr = Files.createTempFile("stderr", null)
+    Files.writeString(stderr, "src/build/NotCompiling.java:4: error: cannot find symbol\n")
+
+    // when
+    for (originId in listOf("firstBuild", "secondBuild")) {
+      val server = newBepServer(client, diagnosticsService, originId)
+      server.handleBuildEventStreamProtosEvent(buildStarted(Constants.BAZEL_BUILD_COMMAND))
+      server.handleBuildEventStreamProtosEvent(failedAction(stderr))
+      server.handleBuildEventStreamProtosEvent(buildFinished(exitCode = 1))
+    }
+
+    // then
+    assertEquals(listOf("firstBuild", "secondBuild"), client.buildPublishDiagnostics.map { it.originId })
+    assertEquals(listOf(1, 1), client.buildPublishDiagnostics.map { it.diagnostics.size })
+  }
+
+  @Test
+  fun `test results of multiple targets are reported per target`() {
+    val client = MockBuildClient()
+    val server = newBepServer(client)
+
+    listOf(
+      testResult("//a:test", 0, BuildEventStreamProtos.TestStatus.PASSED),
+      testResult("//b:test", 0, BuildEventStreamProtos.TestStatus.PASSED),
+      testResult("//a:test", 1, BuildEventStreamProtos.TestStatus.FAILED),
+      testSummary("//b:test"),
+      testSummary("//a:test"),
+    ).forEach { server.handleBuildEventStreamProtosEvent(it) }
+
+    val testTargets =
+      client.buildTaskStarts
+        .filter { it.dataKind == TaskStartDataKind.TEST_TASK }
+        .map { (it.data as TestTask).target.uri }
+    assertEquals(listOf("@//a:test", "@//b:test"), testTargets)
+
+    val testReports =
+      client.buildTaskFinishes
+        .filter { it.dataKind == TaskFinishDataKind.TEST_REPORT }
+        .map { it.data as TestReport }
+        .map { Triple(it.target.uri, it.passed, it.failed) }
+    assertEquals(listOf(Triple("@//b:test", 1, 0), Triple("@//a:test", 1, 1)), testReports)
+  }
+
+  @Test
+  fun `test targets are reported while the tests are running`() {
+    val client = MockBuildClient()
+    val server = newBepServer(client)
+
+    val started =
+      BuildEventStreamProtos.BuildEvent
+        .newBuilder()
+        .apply {
+          id = idBuilder.apply { started = startedBuilder.build() }.build()
+          started = startedBuilder.setUuid("build").setCommand("test").build()
+        }.build()
+    val configured =
+      BuildEventStreamProtos.BuildEvent
+        .newBuilder()
+        .apply {
+          id = idBuilder.apply { targetConfigured = targetConfiguredBuilder.setLabel("//a:test").build() }.build()
+          configured = configuredBuilder.setTestSize(BuildEventStreamProtos.TestSize.SMALL).build()
+        }.build()
+    val progress =
+      BuildEventStreamProtos.BuildEvent
+        .newBuilder()
+        .apply {
+          id = idBuilder.apply { progress = progressBuilder.setOpaqueCount(1).build() }.build()
+          progress = progressBuilder.setStderr("INFO: Running tests").build()
+        }.build()
+
+    listOf(started, configured, progress).forEach { server.handleBuildEventStreamProtosEvent(it) }
+
+    // the target is started before any of its shards finished
+    val testTargets =
+      client.buildTaskStarts
+        .filter { it.dataKind == TaskStartDataKind.TEST_TASK }
+        .map { (it.data as TestTask).target.uri }
+    assertEquals(listOf("@//a:test"), testTargets)
+    assertEquals(listOf("INFO: Running tests"), client.buildTaskProgress.map { it.message })
+
+    listOf(
+      testResult("//a:test", 1, BuildEventStreamProtos.TestStatus.PASSED),
+      testResult("//a:test", 2, BuildEventStreamProtos.TestStatus.PASSED),
+    ).forEach { server.handleBuildEventStreamProtosEvent(it) }
+
+    val testTaskId = client.buildTaskStarts.single { it.dataKind == TaskStartDataKind.TEST_TASK }.taskId
+    assertEquals(listOf(1L, 2L), client.buildTaskProgress.filter { it.taskId == testTaskId }.map { it.progress })
+
+    server.handleBuildEventStreamProtosEvent(
+      testSummary("//a:test") {
+        setOverallStatus(BuildEventStreamProtos.TestStatus.PASSED)
+          .setTotalRunCount(2)
+          .setRunCount(1)
+          .setShardCount(2)
+          .setAttemptCount(1)
+          .setTotalRunDurationMillis(100)
+      },
+    )
+
+    val testReport = client.buildTaskFinishes.single { it.dataKind == TaskFinishDataKind.TEST_REPORT }
+    assertEquals("PASSED: 2 test actions (1 runs, 2 shards, at most 1 attempts)", testReport.message)
+    assertEquals(100L, (testReport.data as TestReport).time)
+  }
+
+  private fun buildStarted(command: String): BuildEventStreamProtos.BuildEvent =
+    BuildEventStreamProtos.BuildEvent
+      .newBuilder()
+      .apply {
+        started =
+          startedBuilder
+            .apply {
+              uuid = "uuid"
+              this.command = command
+            }.build()
+      }.build()
+
+  private fun failedAction(stderr: Path): BuildEventStreamProtos.BuildEvent =
+    BuildEventStreamProtos.BuildEvent
+      .newBuilder()
+      .apply {
+        action =
+          actionBuilder
+            .apply {
+              success = false
+              this.stderr =
+                BuildEventStreamProtos.File
+                  .newBuilder()
+                  .setUri(stderr.toUri().toString())
+                  .build()
+            }.build()
+      }.build()
+
+  private fun buildFinished(exitCode: Int): BuildEventStreamProtos.BuildEvent =
+    BuildEventStreamProtos.BuildEvent
+      .newBuilder()
+      .apply {
+        finished =
+          finishedBuilder
+            .apply {
+              this.exitCode = exitCodeBuilder.setCode(exitCode).build()
+            }.build()
+      }.build()
+
+  private fun testResult(
+    label: String,
+    shard: Int,
+    status: BuildEventStreamProtos.TestStatus,
+  ) = BuildEventStreamProtos.BuildEvent
+    .newBuilder()
+    .apply {
+      id = idBuilder.apply { testResult = testResultBuilder.setLabel(label).setShard(shard).build() }.build()
+      testResult = testResultBuilder.setStatus(status).build()
+    }.build()
+
+  private fun testSummary(
+    label: String,
+    summary: BuildEventStreamProtos.TestSummary.Builder.() -> Unit = {},
+  ) = BuildEventStreamProtos.BuildEvent
+    .newBuilder()
+    .apply {
+      id = idBuilder.apply { testSummary = testSummaryBuilder.setLabel(label).build() }.build()
+      testSummary = testSummaryBuilder.apply(summary).build()
+    }.build()
 }
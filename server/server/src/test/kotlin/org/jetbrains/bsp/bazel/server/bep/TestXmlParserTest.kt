@@ -547,6 +547,43 @@ class TestXmlParserTest {
     }
   }
 
+  @Test
+  fun `long texts are truncated`(
+    @TempDir tempDir: Path,
+  ) {
+    // given
+    val longOutput = "x".repeat(TestXmlParser.MAX_TEXT_LENGTH + 10)
+    val sampleContents =
+      """
+      <?xml version='1.0' encoding='UTF-8'?>
+      <testsuites>
+        <testsuite name='com.example.Tests' timestamp='2024-05-21T14:59:39.108Z' hostname='localhost' tests='1' failures='1' errors='0' time='0.1' package='' id='0'>
+          <testcase name='test1' classname='com.example.Tests' time='0.1'>
+            <failure message='failed' type='java.lang.AssertionError'>$longOutput</failure>
+          </testcase>
+          <system-out><![CDATA[$longOutput]]></system-out>
+        </testsuite>
+      </testsuites>
+      """.trimIndent()
+
+    val client = MockBuildClient()
+    val notifier = BspClientTestNotifier(client, "sample-origin")
+    val parentId = TaskId("sample-task")
+
+    // when
+    TestXmlParser(parentId, notifier).parseAndReport(writeTempFile(tempDir, sampleContents))
+
+    // then
+    client.taskStartCalls.size shouldBe 2
+    client.taskFinishCalls.size shouldBe 2
+
+    val truncatedOutput = "x".repeat(TestXmlParser.MAX_TEXT_LENGTH) + "\n... (10 more characters truncated)"
+    val testCaseFinish = client.taskFinishCalls.map { it.data as TestFinish }.single { it.displayName == "test1" }
+    (testCaseFinish.data as JUnitStyleTestCaseData).errorContent shouldBe truncatedOutput
+    val suiteFinish = client.taskFinishCalls.map { it.data as TestFinish }.single { it.displayName == "com.example.Tests" }
+    suiteFinish.message shouldBe truncatedOutput
+  }
+
   private fun writeTempFile(tempDir: Path, contents: String): String {
     val tempFile = tempDir.resolve("tempFile.xml").toFile()
     tempFile.writeText(contents)
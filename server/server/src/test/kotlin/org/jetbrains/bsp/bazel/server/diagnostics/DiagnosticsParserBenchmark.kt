@@ -0,0 +1,74 @@
+package org.jetbrains.bsp.bazel.server.diagnostics
+
+import org.jetbrains.bsp.bazel.server.model.Label
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.io.path.bufferedWriter
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.fileSize
+import kotlin.system.measureNanoTime
+
+/**
+ * Parses a synthetic compiler log (50 MB by default) with thousands of errors,
+ * streamed from the file and read fully into a string beforehand.
+ *
+ * Run with `bazel run //server/server/src/test/kotlin/org/jetbrains/bsp/bazel/server/diagnostics:DiagnosticsParserBenchmark`,
+ * optionally passing the log size in MB as an argument.
+ */
+fun main(args: Array<String>) {
+  val sizeMb = args.firstOrNull()?.toInt() ?: 50
+  val log = Files.createTempFile("compiler", ".log")
+  try {
+    writeSyntheticLog(log, sizeMb.toLong() * 1024 * 1024)
+    val target = Label.parse("//package:target")
+    val parser = DiagnosticsParserImpl()
+
+    // warm up the parser before measuring
+    repeat(2) { Files.newBufferedReader(log).useLines { parser.parse(it, target).count() } }
+
+    report("streamed", log) { Files.newBufferedReader(log).useLines { parser.parse(it, target).count() } }
+    report("whole string", log) { parser.parse(Files.readString(log), target).size }
+  } finally {
+    log.deleteIfExists()
+  }
+}
+
+private fun report(
+  mode: String,
+  log: Path,
+  parse: () -> Int,
+) {
+  val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+  val threadId = Thread.currentThread().id
+  val allocatedBefore = threadBean.getThreadAllocatedBytes(threadId)
+  var diagnostics = 0
+  val nanos = measureNanoTime { diagnostics = parse() }
+  val allocatedMb = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / (1024 * 1024)
+  println(
+    "${log.fileSize() / (1024 * 1024)} MB log, $mode: $diagnostics diagnostics in ${nanos / 1_000_000} ms, $allocatedMb MB allocated",
+  )
+}
+
+// javac-like errors with source excerpts, interleaved with bazel noise
+private fun writeSyntheticLog(log: Path, size: Long) {
+  log.bufferedWriter().use { writer ->
+    var index = 0
+    while (Files.size(log) < size) {
+      repeat(1000) {
+        val file = "package${index % 500}/Source${index % 37}.java"
+        writer.appendLine("$file:${index % 1000 + 1}: error: cannot find symbol")
+        writer.appendLine("    Symbol${index}.call(argument$index);")
+        writer.appendLine("    ^")
+        writer.appendLine("  symbol:   class Symbol$index")
+        writer.appendLine("  location: class Source${index % 37}")
+        if (index % 10 == 0) {
+          writer.appendLine("INFO: From Compiling package${index % 500}:")
+          writer.appendLine()
+        }
+        index++
+      }
+      writer.flush()
+    }
+  }
+}
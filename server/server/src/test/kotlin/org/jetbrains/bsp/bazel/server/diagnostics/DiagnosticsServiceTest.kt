@@ -6,6 +6,8 @@ import ch.epfl.scala.bsp4j.PublishDiagnosticsParams
 import ch.epfl.scala.bsp4j.Range
 import ch.epfl.scala.bsp4j.TextDocumentIdentifier
 import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import io.kotest.matchers.comparables.shouldBeLessThan
+import io.kotest.matchers.shouldBe
 import org.jetbrains.bsp.bazel.server.model.Label
 import org.junit.jupiter.api.Test
 import java.nio.file.Paths
@@ -739,6 +741,136 @@ class DiagnosticsServiceTest {
     diagnostics shouldContainExactlyInAnyOrder expected
   }
 
+  @Test
+  fun `should publish all diagnostics of every build once and clear the ones of successfully built targets`() {
+    // given
+    val service = DiagnosticsService(workspacePath)
+    val label = Label.parse("//path/to/package:test")
+    val output =
+      """
+      |path/to/package/Test.scala:3: error: type mismatch
+      |path/to/package/Other.scala:4: error: not found
+      """.trimMargin()
+    val changedOutput =
+      """
+      |path/to/package/Test.scala:3: error: type mismatch
+      |path/to/package/Other.scala:5: error: not found
+      """.trimMargin()
+    val firstBuild = mutableMapOf<DiagnosticsService.DocumentInTarget, Int>()
+    val secondBuild = mutableMapOf<DiagnosticsService.DocumentInTarget, Int>()
+    val thirdBuild = mutableMapOf<DiagnosticsService.DocumentInTarget, Int>()
+
+    // when
+    val first = service.changedDiagnostics(output.lineSequence(), label, "originId", firstBuild).toList()
+    val firstRepeated = service.changedDiagnostics(output.lineSequence(), label, "originId", firstBuild).toList()
+    val second = service.changedDiagnostics(output.lineSequence(), label, "originId", secondBuild).toList()
+    val secondChanged = service.changedDiagnostics(changedOutput.lineSequence(), label, "originId", secondBuild).toList()
+    val cleared = service.staleDiagnostics(setOf(label), thirdBuild.keys, "originId")
+    val clearedAgain = service.staleDiagnostics(setOf(label), thirdBuild.keys, "originId")
+
+    // then
+    val testFile = TextDocumentIdentifier("file:///user/workspace/path/to/package/Test.scala")
+    val otherFile = TextDocumentIdentifier("file:///user/workspace/path/to/package/Other.scala")
+    val target = BuildTargetIdentifier("@//path/to/package:test")
+    first.map { it.textDocument } shouldContainExactlyInAnyOrder listOf(testFile, otherFile)
+    firstRepeated shouldContainExactlyInAnyOrder emptyList()
+    second.map { it.textDocument } shouldContainExactlyInAnyOrder listOf(testFile, otherFile)
+    secondChanged shouldContainExactlyInAnyOrder
+      listOf(publishDiagnosticsParams(otherFile, target, errorDiagnostic(Position(5, 1), "not found")))
+    secondBuild.keys shouldContainExactlyInAnyOrder
+      listOf(DiagnosticsService.DocumentInTarget(testFile, target), DiagnosticsService.DocumentInTarget(otherFile, target))
+    cleared shouldContainExactlyInAnyOrder
+      listOf(publishDiagnosticsParams(testFile, target), publishDiagnosticsParams(otherFile, target))
+    clearedAgain shouldContainExactlyInAnyOrder emptyList()
+  }
+
+  @Test
+  fun `should clear diagnostics of an earlier build under its origin id`() {
+    // given
+    val service = DiagnosticsService(workspacePath)
+    val label = Label.parse("//path/to/package:test")
+    val output =
+      """
+      |path/to/package/Test.scala:3: error: type mismatch
+      |path/to/package/Other.scala:4: error: not found
+      """.trimMargin()
+    val fixedOutput = "path/to/package/Test.scala:3: error: type mismatch"
+    val secondBuild = mutableMapOf<DiagnosticsService.DocumentInTarget, Int>()
+
+    // when
+    service.changedDiagnostics(output.lineSequence(), label, "firstBuild", mutableMapOf()).toList()
+    service.changedDiagnostics(fixedOutput.lineSequence(), label, "secondBuild", secondBuild).toList()
+    val cleared = service.staleDiagnostics(setOf(label), secondBuild.keys, "secondBuild")
+
+    // then
+    val testFile = TextDocumentIdentifier("file:///user/workspace/path/to/package/Test.scala")
+    val otherFile = TextDocumentIdentifier("file:///user/workspace/path/to/package/Other.scala")
+    val target = BuildTargetIdentifier("@//path/to/package:test")
+    cleared.map { Triple(it.textDocument, it.originId, it.diagnostics) } shouldContainExactlyInAnyOrder
+      listOf(Triple(testFile, "firstBuild", emptyList()), Triple(otherFile, "firstBuild", emptyList()))
+    cleared.map { it.buildTarget }.distinct() shouldBe listOf(target)
+  }
+
+  @Test
+  fun `should publish diagnostics of a file before reading the rest of the output`() {
+    // given
+    val service = DiagnosticsService(workspacePath)
+    val label = Label.parse("//path/to/package:test")
+    val lines =
+      listOf(
+        "path/to/package/First.scala:3: error: type mismatch",
+        "path/to/package/Second.scala:4: error: not found",
+      ) + List(50) { "compiling file $it" } + "path/to/package/Third.scala:5: error: not found"
+    var linesRead = 0
+
+    // when
+    val first = service.changedDiagnostics(lines.asSequence().onEach { linesRead++ }, label, "originId", mutableMapOf()).first()
+
+    // then
+    first.textDocument shouldBe TextDocumentIdentifier("file:///user/workspace/path/to/package/First.scala")
+    linesRead shouldBeLessThan lines.size
+  }
+
+  @Test
+  fun `should append diagnostics of a file reported again later in the output`() {
+    // given
+    val service = DiagnosticsService(workspacePath)
+    val label = Label.parse("//path/to/package:test")
+    val output =
+      """
+      |path/to/package/Test.scala:3: error: type mismatch
+      |path/to/package/Other.scala:4: error: not found
+      |path/to/package/Test.scala:7: error: not found
+      """.trimMargin()
+
+    // when
+    val diagnostics = service.changedDiagnostics(output.lineSequence(), label, "originId", mutableMapOf()).toList()
+
+    // then
+    val testFile = TextDocumentIdentifier("file:///user/workspace/path/to/package/Test.scala")
+    val otherFile = TextDocumentIdentifier("file:///user/workspace/path/to/package/Other.scala")
+    val target = BuildTargetIdentifier("@//path/to/package:test")
+    diagnostics shouldBe
+      listOf(
+        publishDiagnosticsParams(testFile, target, errorDiagnostic(Position(3, 1), "type mismatch")),
+        publishDiagnosticsParams(otherFile, target, errorDiagnostic(Position(4, 1), "not found")),
+        publishDiagnosticsParams(testFile, target, errorDiagnostic(Position(7, 1), "not found")).apply { reset = false },
+      )
+  }
+
+  @Test
+  fun `should truncate the output of unknown diagnostic instead of skipping lines`() {
+    // given
+    val longLine = "a".repeat(Output.MAX_FULL_OUTPUT_LENGTH / 2 + 1)
+    val output = listOf(longLine, longLine, "short line").joinToString("\n")
+
+    // when
+    val diagnostics = extractDiagnostics(output, Label.parse("//path/to/package:test"))
+
+    // then
+    diagnostics.single().diagnostics.single().message shouldBe "$longLine\n... (2 more lines truncated)"
+  }
+
   private fun publishDiagnosticsParams(
     textDocument: TextDocumentIdentifier,
     buildTarget: BuildTargetIdentifier,
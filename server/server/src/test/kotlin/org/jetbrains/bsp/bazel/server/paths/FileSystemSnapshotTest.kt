@@ -0,0 +1,74 @@
+package org.jetbrains.bsp.bazel.server.paths
+
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.io.path.createDirectories
+import kotlin.io.path.createFile
+
+class FileSystemSnapshotTest {
+  @TempDir
+  lateinit var tempDir: Path
+
+  @Test
+  fun `should list every directory once`() {
+    // given
+    val directory = tempDir.resolve("src").createDirectories()
+    val sources = (1..10).map { directory.resolve("File$it.java").createFile() }
+    val snapshot = FileSystemSnapshot()
+
+    // when
+    val existing = sources.map(snapshot::exists)
+    val missing = snapshot.exists(directory.resolve("Missing.java"))
+    val inMissingDirectory = snapshot.exists(tempDir.resolve("missing/File.java"))
+
+    // then
+    existing shouldBe List(10) { true }
+    missing shouldBe false
+    inMissingDirectory shouldBe false
+    snapshot.existenceChecks shouldBe 12
+    snapshot.fileSystemCallsMade shouldBe 2
+  }
+
+  @Test
+  fun `should list directories again after clear`() {
+    // given
+    val directory = tempDir.resolve("src").createDirectories()
+    val snapshot = FileSystemSnapshot()
+    snapshot.exists(directory.resolve("File.java")) shouldBe false
+    directory.resolve("File.java").createFile()
+
+    // when
+    val beforeClear = snapshot.exists(directory.resolve("File.java"))
+    snapshot.clear()
+    val afterClear = snapshot.exists(directory.resolve("File.java"))
+
+    // then
+    beforeClear shouldBe false
+    afterClear shouldBe true
+  }
+
+  @Test
+  fun `should answer existence checks of files whose modification time was read`() {
+    // given
+    val directory = tempDir.resolve("src").createDirectories()
+    val source = directory.resolve("File.java").createFile()
+    val snapshot = FileSystemSnapshot()
+
+    // when
+    val lastModified = snapshot.lastModifiedMillis(source)
+    val missingLastModified = snapshot.lastModifiedMillis(directory.resolve("Missing.java"))
+    val exists = snapshot.exists(source)
+    val missingExists = snapshot.exists(directory.resolve("Missing.java"))
+
+    // then
+    lastModified shouldBe Files.getLastModifiedTime(source).toMillis()
+    missingLastModified shouldBe null
+    exists shouldBe true
+    missingExists shouldBe false
+    snapshot.existenceChecks shouldBe 4
+    snapshot.fileSystemCallsMade shouldBe 2
+  }
+}
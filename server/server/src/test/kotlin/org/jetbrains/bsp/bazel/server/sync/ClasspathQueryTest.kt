@@ -0,0 +1,45 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.junit.jupiter.api.Test
+
+class ClasspathQueryTest {
+  @Test
+  fun `should parse the classpaths of all queried targets`() {
+    // given
+    val output =
+      """
+      {"label": "@@//src:lib", "runtime_classpath": ["bazel-out/lib.jar", "bazel-out/dep.jar"], "compile_classpath": ["bazel-out/dep-hjar.jar"]}
+      {"label": "//src:test", "runtime_classpath": [], "compile_classpath": []}
+      """.trimIndent()
+
+    // when
+    val classpaths = ClasspathQuery.parse(output.reader())
+
+    // then
+    classpaths shouldBe
+      mapOf(
+        Label.parse("//src:lib") to
+          ClasspathQuery.JvmClasspath(listOf("bazel-out/lib.jar", "bazel-out/dep.jar"), listOf("bazel-out/dep-hjar.jar")),
+        Label.parse("//src:test") to ClasspathQuery.JvmClasspath(emptyList(), emptyList()),
+      )
+  }
+
+  @Test
+  fun `should take the longest classpath of a target built in multiple configurations`() {
+    // given
+    val output =
+      """
+      {"label": "@@//src:lib", "runtime_classpath": ["exec/lib.jar"], "compile_classpath": []}
+      {"label": "@@//src:lib", "runtime_classpath": ["target/lib.jar", "target/dep.jar"], "compile_classpath": []}
+      """.trimIndent()
+
+    // when
+    val classpaths = ClasspathQuery.parse(output.reader())
+
+    // then
+    classpaths shouldBe
+      mapOf(Label.parse("//src:lib") to ClasspathQuery.JvmClasspath(listOf("target/lib.jar", "target/dep.jar"), emptyList()))
+  }
+}
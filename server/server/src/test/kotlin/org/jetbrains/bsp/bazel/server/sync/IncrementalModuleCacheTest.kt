@@ -0,0 +1,213 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import ch.epfl.scala.bsp4j.BuildTargetIdentifier
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.kotest.matchers.types.shouldNotBeSameInstanceAs
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.Dependency
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.FileLocation
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.KotlinTargetInfo
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import org.jetbrains.bsp.bazel.server.dependencygraph.DependencyGraph
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.jetbrains.bsp.bazel.server.model.Language
+import org.jetbrains.bsp.bazel.server.model.Module
+import org.jetbrains.bsp.bazel.server.model.SourceSet
+import org.jetbrains.bsp.bazel.server.paths.FileSystemSnapshot
+import org.jetbrains.bsp.bazel.workspacecontext.AllowManualTargetsSyncSpec
+import org.jetbrains.bsp.bazel.workspacecontext.BazelBinarySpec
+import org.jetbrains.bsp.bazel.workspacecontext.BuildFlagsSpec
+import org.jetbrains.bsp.bazel.workspacecontext.DirectoriesSpec
+import org.jetbrains.bsp.bazel.workspacecontext.DotBazelBspDirPathSpec
+import org.jetbrains.bsp.bazel.workspacecontext.EnabledRulesSpec
+import org.jetbrains.bsp.bazel.workspacecontext.ExperimentalAddTransitiveCompileTimeJars
+import org.jetbrains.bsp.bazel.workspacecontext.ExperimentalUseLibOverModSpec
+import org.jetbrains.bsp.bazel.workspacecontext.IdeJavaHomeOverrideSpec
+import org.jetbrains.bsp.bazel.workspacecontext.ImportDepthSpec
+import org.jetbrains.bsp.bazel.workspacecontext.TargetsSpec
+import org.jetbrains.bsp.bazel.workspacecontext.WorkspaceContext
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.io.path.Path
+import kotlin.io.path.createFile
+import kotlin.io.path.writeText
+
+class IncrementalModuleCacheTest {
+  private val workspaceContext =
+    WorkspaceContext(
+      targets = TargetsSpec(listOf(BuildTargetIdentifier("//...")), emptyList()),
+      directories = DirectoriesSpec(listOf(Path(".")), emptyList()),
+      buildFlags = BuildFlagsSpec(emptyList()),
+      bazelBinary = BazelBinarySpec(Path("bazel")),
+      allowManualTargetsSync = AllowManualTargetsSyncSpec(false),
+      dotBazelBspDirPath = DotBazelBspDirPathSpec(Path(".bazelbsp")),
+      importDepth = ImportDepthSpec(-1),
+      enabledRules = EnabledRulesSpec(emptyList()),
+      ideJavaHomeOverrideSpec = IdeJavaHomeOverrideSpec(null),
+      experimentalUseLibOverModSection = ExperimentalUseLibOverModSpec(false),
+      experimentalAddTransitiveCompileTimeJars = ExperimentalAddTransitiveCompileTimeJars(false),
+    )
+
+  private val fileSystemSnapshot = FileSystemSnapshot()
+  private val cache = IncrementalModuleCache(fileSystemSnapshot)
+  private var modulesCreated = 0
+
+  @Test
+  fun `should reuse module of unchanged target with unchanged sources`(@TempDir tempDir: Path) {
+    // given
+    val source = tempDir.resolve("A.kt").apply { writeText("package a") }.also(::setModifiedMinuteAgo)
+    val targets = targets(targetInfo("//a"))
+
+    // when
+    val firstModule = sync(targets, listOf(source))
+    val secondModule = sync(targets, listOf(source))
+
+    // then
+    secondModule shouldBeSameInstanceAs firstModule
+    modulesCreated shouldBe 1
+    fileSystemSnapshot.fileSystemCallsMade shouldBe 1
+  }
+
+  @Test
+  fun `should recreate module after generated source appears`(@TempDir tempDir: Path) {
+    // given
+    val generatedSource = tempDir.resolve("Generated.kt")
+    val targets = targets(targetInfo("//a"))
+
+    // when
+    val moduleWithoutGeneratedSource = sync(targets, listOf(generatedSource))
+    generatedSource.createFile()
+    val moduleWithGeneratedSource = sync(targets, listOf(generatedSource))
+
+    // then
+    moduleWithGeneratedSource shouldNotBeSameInstanceAs moduleWithoutGeneratedSource
+    modulesCreated shouldBe 2
+  }
+
+  @Test
+  fun `should recreate module after source is modified`(@TempDir tempDir: Path) {
+    // given
+    val source = tempDir.resolve("A.kt").apply { writeText("package a") }.also(::setModifiedMinuteAgo)
+    val targets = targets(targetInfo("//a"))
+
+    // when
+    val firstModule = sync(targets, listOf(source))
+    source.writeText("package b")
+    val secondModule = sync(targets, listOf(source))
+
+    // then
+    secondModule shouldNotBeSameInstanceAs firstModule
+    modulesCreated shouldBe 2
+  }
+
+  @Test
+  fun `should recreate modules when sync builds the project`(@TempDir tempDir: Path) {
+    // given
+    val source = tempDir.resolve("A.kt").apply { writeText("package a") }.also(::setModifiedMinuteAgo)
+    val targets = targets(targetInfo("//a"))
+
+    // when
+    val firstModule = sync(targets, listOf(source))
+    val builtModule = sync(targets, listOf(source), build = true)
+    val fileSystemCallsOfBuild = fileSystemSnapshot.fileSystemCallsMade
+    val thirdModule = sync(targets, listOf(source))
+
+    // then
+    builtModule shouldNotBeSameInstanceAs firstModule
+    thirdModule shouldBeSameInstanceAs builtModule
+    modulesCreated shouldBe 2
+    // the directory listed to hash the existing sources, no modification times are read
+    fileSystemCallsOfBuild shouldBe 1
+  }
+
+  @Test
+  fun `should recreate all modules after kotlin stdlibs change`() {
+    // given
+    val a = targetInfo("//a")
+    val b = targetInfo("//b", kotlinStdlib = "kotlin-stdlib-1.9.jar")
+    val bWithNewStdlib = targetInfo("//b", kotlinStdlib = "kotlin-stdlib-2.0.jar")
+
+    // when
+    val firstModule = sync(targets(a, b), emptyList())
+    val secondModule = sync(targets(a, bWithNewStdlib), emptyList())
+
+    // then
+    secondModule shouldNotBeSameInstanceAs firstModule
+  }
+
+  @Test
+  fun `should recreate module of reverse dependency of changed target`() {
+    // given
+    val a = targetInfo("//a", dependencies = listOf("//b"))
+    val b = targetInfo("//b")
+    val changedB = targetInfo("//b", dependencies = listOf("//c"))
+
+    // when
+    val firstModule = sync(targets(a, b), emptyList())
+    val secondModule = sync(targets(a, changedB), emptyList())
+
+    // then
+    secondModule shouldNotBeSameInstanceAs firstModule
+  }
+
+  // syncs all the targets and returns the module of the first one
+  private fun sync(
+    targets: Map<Label, TargetInfo>,
+    inputFiles: List<Path>,
+    build: Boolean = false,
+  ): Module {
+    // the snapshot is cleared before every sync, as ProjectResolver does
+    fileSystemSnapshot.clear()
+    cache.startSync(targets, DependencyGraph(targets.keys, targets), workspaceContext, build)
+    return targets.values
+      .map { target -> cache.getOrCreate(target, emptyList(), inputFiles) { module(target.id) } }
+      .first()
+  }
+
+  private fun setModifiedMinuteAgo(file: Path) {
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60_000))
+  }
+
+  private fun module(label: String): Module {
+    modulesCreated++
+    return Module(
+      label = Label.parse(label),
+      isSynthetic = false,
+      directDependencies = emptyList(),
+      languages = setOf(Language.KOTLIN),
+      tags = emptySet(),
+      baseDirectory = Path("/src").toUri(),
+      sourceSet = SourceSet(sources = emptySet(), generatedSources = emptySet(), sourceRoots = emptySet()),
+      resources = emptySet(),
+      outputs = emptySet(),
+      sourceDependencies = emptySet(),
+      languageData = null,
+      environmentVariables = emptyMap(),
+    )
+  }
+
+  private fun targetInfo(
+    id: String,
+    dependencies: List<String> = emptyList(),
+    kotlinStdlib: String? = null,
+  ): TargetInfo {
+    val builder =
+      TargetInfo
+        .newBuilder()
+        .setId(id)
+        .addAllDependencies(dependencies.map { Dependency.newBuilder().setId(it).build() })
+    kotlinStdlib?.let {
+      builder.setKotlinTargetInfo(
+        KotlinTargetInfo.newBuilder().addStdlibs(
+          FileLocation.newBuilder().setRelativePath(it),
+        ),
+      )
+    }
+    return builder.build()
+  }
+
+  private fun targets(vararg targetInfos: TargetInfo): Map<Label, TargetInfo> = targetInfos.associateBy { Label.parse(it.id) }
+}
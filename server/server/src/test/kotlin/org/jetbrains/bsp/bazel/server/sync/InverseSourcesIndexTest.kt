@@ -0,0 +1,78 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelRelease
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.jetbrains.bsp.bazel.server.model.Language
+import org.jetbrains.bsp.bazel.server.model.Module
+import org.jetbrains.bsp.bazel.server.model.Project
+import org.jetbrains.bsp.bazel.server.model.SourceSet
+import org.jetbrains.bsp.bazel.server.model.SourceWithData
+import org.junit.jupiter.api.Test
+import java.net.URI
+import java.nio.file.Paths
+
+class InverseSourcesIndexTest {
+  private fun module(label: String, vararg sources: String) =
+    Module(
+      label = Label.parse(label),
+      isSynthetic = false,
+      directDependencies = emptyList(),
+      languages = setOf(Language.JAVA),
+      tags = emptySet(),
+      baseDirectory = URI.create("file:///src/"),
+      sourceSet =
+        SourceSet(
+          sources = sources.map { SourceWithData(URI.create(it)) }.toSet(),
+          generatedSources = emptySet(),
+          sourceRoots = emptySet(),
+        ),
+      resources = emptySet(),
+      outputs = emptySet(),
+      sourceDependencies = emptySet(),
+      languageData = null,
+      environmentVariables = emptyMap(),
+    )
+
+  private val project =
+    Project(
+      workspaceRoot = URI.create("file:///"),
+      modules =
+        listOf(
+          module("//src:lib", "file:///src/Lib.java", "file:///src/Shared.java"),
+          module("//src:test", "file:///src/LibTest.java", "file:///src/Shared.java"),
+        ),
+      sourceToTarget = emptyMap(),
+      libraries = emptyMap(),
+      goLibraries = emptyMap(),
+      invalidTargets = emptyList(),
+      nonModuleTargets = emptyList(),
+      bazelRelease = BazelRelease(7),
+    )
+
+  @Test
+  fun `should return all targets containing the file`() {
+    // given
+    val index = InverseSourcesIndex(project)
+
+    // when
+    val libTargets = index.targetsContaining(Paths.get("/src/Lib.java"))
+    val sharedTargets = index.targetsContaining(Paths.get("/src/../src/Shared.java"))
+
+    // then
+    libTargets shouldBe listOf(Label.parse("//src:lib"))
+    sharedTargets shouldBe listOf(Label.parse("//src:lib"), Label.parse("//src:test"))
+  }
+
+  @Test
+  fun `should return null for files unknown to the last sync`() {
+    // given
+    val index = InverseSourcesIndex(project)
+
+    // when
+    val targets = index.targetsContaining(Paths.get("/src/New.java"))
+
+    // then
+    targets shouldBe null
+  }
+}
@@ -0,0 +1,80 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import com.google.devtools.build.lib.view.proto.Deps
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.io.path.outputStream
+
+class JdepsCacheTest {
+  @TempDir
+  lateinit var tempDir: Path
+
+  private val cachePath by lazy { tempDir.resolve(JdepsCache.FILE_NAME) }
+
+  @Test
+  fun `should return only explicit and implicit dependencies`() {
+    // given
+    val jdeps =
+      writeJdeps(
+        "lib.jdeps",
+        "explicit.jar" to Deps.Dependency.Kind.EXPLICIT,
+        "implicit.jar" to Deps.Dependency.Kind.IMPLICIT,
+        "unused.jar" to Deps.Dependency.Kind.UNUSED,
+        "incomplete.jar" to Deps.Dependency.Kind.INCOMPLETE,
+      )
+
+    // when
+    val dependencies = JdepsCache(cachePath).relevantDependencies(jdeps)
+
+    // then
+    dependencies shouldBe listOf("explicit.jar", "implicit.jar")
+  }
+
+  @Test
+  fun `should return an empty list for a missing jdeps file`() {
+    // when
+    val dependencies = JdepsCache(cachePath).relevantDependencies(tempDir.resolve("missing.jdeps"))
+
+    // then
+    dependencies shouldBe emptyList()
+  }
+
+  @Test
+  fun `should reuse dependencies stored by the previous sync until the file changes`() {
+    // given
+    val jdeps = writeJdeps("lib.jdeps", "a.jar" to Deps.Dependency.Kind.EXPLICIT)
+    val lastModifiedTime = Files.getLastModifiedTime(jdeps)
+    JdepsCache(cachePath).apply {
+      relevantDependencies(jdeps)
+      store()
+    }
+    // same size and modification time, so it is not parsed again
+    writeJdeps("lib.jdeps", "b.jar" to Deps.Dependency.Kind.EXPLICIT)
+    Files.setLastModifiedTime(jdeps, lastModifiedTime)
+
+    // when
+    val cachedDependencies = JdepsCache(cachePath).relevantDependencies(jdeps)
+    Files.setLastModifiedTime(jdeps, FileTime.fromMillis(lastModifiedTime.toMillis() + 1000))
+    val updatedDependencies = JdepsCache(cachePath).relevantDependencies(jdeps)
+
+    // then
+    cachedDependencies shouldBe listOf("a.jar")
+    updatedDependencies shouldBe listOf("b.jar")
+  }
+
+  private fun writeJdeps(name: String, vararg dependencies: Pair<String, Deps.Dependency.Kind>): Path {
+    val path = tempDir.resolve(name)
+    path.outputStream().use { output ->
+      Deps.Dependencies
+        .newBuilder()
+        .addAllDependency(dependencies.map { (jar, kind) -> Deps.Dependency.newBuilder().setPath(jar).setKind(kind).build() })
+        .build()
+        .writeTo(output)
+    }
+    return path
+  }
+}
@@ -0,0 +1,116 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bsp.bazel.bazelrunner.utils.BazelRelease
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.jetbrains.bsp.bazel.server.model.Language
+import org.jetbrains.bsp.bazel.server.model.Library
+import org.jetbrains.bsp.bazel.server.model.Module
+import org.jetbrains.bsp.bazel.server.model.NonModuleTarget
+import org.jetbrains.bsp.bazel.server.model.Project
+import org.jetbrains.bsp.bazel.server.model.SourceSet
+import org.jetbrains.bsp.bazel.server.model.SourceWithData
+import org.jetbrains.bsp.bazel.server.model.Tag
+import org.jetbrains.bsp.bazel.server.sync.languages.java.JavaModule
+import org.jetbrains.bsp.bazel.server.sync.languages.java.Jdk
+import org.jetbrains.bsp.bazel.server.sync.languages.kotlin.KotlinModule
+import org.jetbrains.bsp.bazel.server.sync.languages.rust.RustCrateLocation
+import org.jetbrains.bsp.bazel.server.sync.languages.rust.RustModule
+import org.jetbrains.bsp.protocol.EnhancedSourceItemData
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.net.URI
+
+class ProjectSnapshotCodecTest {
+  @Test
+  fun `should read the same project that was written`() {
+    // given
+    val javaModule =
+      JavaModule(
+        jdk = Jdk("17", URI.create("file:///jdk/")),
+        runtimeJdk = null,
+        javacOpts = listOf("-g"),
+        jvmOps = emptyList(),
+        mainOutput = URI.create("file:///out/lib.jar"),
+        binaryOutputs = listOf(URI.create("file:///out/lib.jar")),
+        mainClass = null,
+        args = listOf("--flag"),
+      )
+    val kotlinModule =
+      Module(
+        label = Label.parse("//src:lib"),
+        isSynthetic = false,
+        directDependencies = listOf(Label.parse("@maven//:guava")),
+        languages = setOf(Language.JAVA, Language.KOTLIN),
+        tags = setOf(Tag.LIBRARY),
+        baseDirectory = URI.create("file:///src/"),
+        sourceSet =
+          SourceSet(
+            sources = setOf(SourceWithData(URI.create("file:///src/Lib.kt"), EnhancedSourceItemData("com.example"))),
+            generatedSources = emptySet(),
+            sourceRoots = setOf(URI.create("file:///src/")),
+          ),
+        resources = emptySet(),
+        outputs = emptySet(),
+        sourceDependencies = emptySet(),
+        languageData = KotlinModule("1.9", "1.9", emptyList(), listOf(Label.parse("//src:other")), javaModule),
+        environmentVariables = mapOf("KEY" to "VALUE"),
+      )
+    val rustModule =
+      Module(
+        label = Label.parse("@crates//:serde"),
+        isSynthetic = false,
+        directDependencies = emptyList(),
+        languages = setOf(Language.RUST),
+        tags = emptySet(),
+        baseDirectory = URI.create("file:///external/crates/"),
+        sourceSet = SourceSet(emptySet(), emptySet(), emptySet()),
+        resources = emptySet(),
+        outputs = emptySet(),
+        sourceDependencies = emptySet(),
+        languageData =
+          RustModule(
+            crateId = "serde",
+            location = RustCrateLocation.EXEC_ROOT,
+            fromWorkspace = false,
+            name = "serde",
+            kind = "lib",
+            edition = "2021",
+            crateFeatures = listOf("std"),
+            dependenciesCrateIds = emptyList(),
+            crateRoot = "lib.rs",
+            version = "1.0.0",
+            procMacroArtifacts = emptyList(),
+            isExternalModule = true,
+          ),
+        environmentVariables = emptyMap(),
+      )
+    val project =
+      Project(
+        workspaceRoot = URI.create("file:///"),
+        modules = listOf(kotlinModule, rustModule),
+        sourceToTarget = mapOf(URI.create("file:///src/Lib.kt") to Label.parse("//src:lib")),
+        libraries =
+          mapOf(
+            Label.parse("@maven//:guava") to
+              Library(Label.parse("@maven//:guava"), setOf(URI.create("file:///guava.jar")), emptySet(), emptyList()),
+          ),
+        goLibraries = emptyMap(),
+        invalidTargets = listOf(Label.parse("//broken:target")),
+        nonModuleTargets =
+          listOf(NonModuleTarget(Label.parse("//tools:sh"), emptySet(), setOf(Tag.MANUAL), URI.create("file:///tools/"))),
+        bazelRelease = BazelRelease(7),
+      )
+
+    // when
+    val bytes = ByteArrayOutputStream().also { ProjectSnapshotCodec.write(project, DataOutputStream(it)) }.toByteArray()
+    val readProject = ProjectSnapshotCodec.read(DataInputStream(ByteArrayInputStream(bytes)))
+
+    // then
+    readProject shouldBe project
+    readProject.findModule(Label.parse("//src:lib")) shouldBe kotlinModule
+  }
+}
@@ -0,0 +1,89 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.Dependency
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.FileLocation
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.JvmOutputs
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.JvmTargetInfo
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import org.junit.jupiter.api.Test
+
+class TargetInfoJsonParserTest {
+  @Test
+  fun `should parse target info written by the aspect`() {
+    // given
+    val json =
+      """
+      {
+        "id": "@//src:lib",
+        "kind": "java_library",
+        "tags": ["manual"],
+        "dependencies": [{"id": "@//src:dep", "dependency_type": 1}],
+        "sources": [{"relative_path": "src/Lib.java", "is_source": true, "is_external": false, "root_execution_path_fragment": ""}],
+        "env": {"KEY": "VALUE"},
+        "env_inherit": [],
+        "executable": false,
+        "jvm_target_info": {
+          "jars": [{"binary_jars": [{"relative_path": "src/liblib.jar", "is_source": false}]}],
+          "javac_opts": ["-Xlint"],
+          "main_class": ""
+        }
+      }
+      """.trimIndent()
+
+    // when
+    val targetInfo = TargetInfoJsonParser.parse(json.reader())
+
+    // then
+    val expected =
+      TargetInfo
+        .newBuilder()
+        .setId("@//src:lib")
+        .setKind("java_library")
+        .addTags("manual")
+        .addDependencies(
+          Dependency
+            .newBuilder()
+            .setId("@//src:dep")
+            .setDependencyType(Dependency.DependencyType.RUNTIME),
+        ).addSources(
+          FileLocation
+            .newBuilder()
+            .setRelativePath("src/Lib.java")
+            .setIsSource(true),
+        ).putEnv("KEY", "VALUE")
+        .setJvmTargetInfo(
+          JvmTargetInfo
+            .newBuilder()
+            .addJars(JvmOutputs.newBuilder().addBinaryJars(FileLocation.newBuilder().setRelativePath("src/liblib.jar")))
+            .addJavacOpts("-Xlint"),
+        ).build()
+    targetInfo shouldBe expected
+  }
+
+  @Test
+  fun `should skip unknown fields and null values`() {
+    // given
+    val json =
+      """
+      {
+        "id": "@//src:lib",
+        "not_a_field": {"nested": [1, 2, {"deeper": null}]},
+        "kind": null,
+        "tags": ["a", null, "b"]
+      }
+      """.trimIndent()
+
+    // when
+    val targetInfo = TargetInfoJsonParser.parse(json.reader())
+
+    // then
+    targetInfo shouldBe
+      TargetInfo
+        .newBuilder()
+        .setId("@//src:lib")
+        .addTags("a")
+        .addTags("b")
+        .build()
+  }
+}
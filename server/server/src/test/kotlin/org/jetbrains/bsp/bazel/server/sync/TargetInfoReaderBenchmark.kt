@@ -0,0 +1,135 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import com.google.gson.stream.JsonWriter
+import com.google.protobuf.Descriptors.EnumValueDescriptor
+import com.google.protobuf.Descriptors.FieldDescriptor
+import com.google.protobuf.Message
+import com.google.protobuf.TextFormat
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.Dependency
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.FileLocation
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.JvmOutputs
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.JvmTargetInfo
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import java.io.StringWriter
+import java.lang.management.ManagementFactory
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares parsing aspect outputs written as text protos with the JSON ones.
+ *
+ * Run with `bazel run //server/server/src/test/kotlin/org/jetbrains/bsp/bazel/server/sync:TargetInfoReaderBenchmark`,
+ * optionally passing the target counts as arguments (defaults to 10000 and 50000).
+ */
+fun main(args: Array<String>) {
+  val targetCounts = args.map { it.toInt() }.ifEmpty { listOf(10_000, 50_000) }
+  for (count in targetCounts) {
+    val targets = (0 until count).map(::syntheticTargetInfo)
+    val textProtos = targets.map { TextFormat.printer().printToString(it) }
+    val jsons = targets.map(::toAspectJson)
+
+    // warm up both parsers before measuring
+    repeat(3) {
+      textProtos.forEach(::parseTextProto)
+      jsons.forEach { TargetInfoJsonParser.parse(it.reader()) }
+    }
+
+    report("text proto", count, textProtos.sumOf { it.length }) { textProtos.forEach(::parseTextProto) }
+    report("json", count, jsons.sumOf { it.length }) { jsons.forEach { TargetInfoJsonParser.parse(it.reader()) } }
+  }
+}
+
+private fun report(
+  format: String,
+  count: Int,
+  inputSize: Int,
+  parse: () -> Unit,
+) {
+  val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+  val threadId = Thread.currentThread().id
+  val allocatedBefore = threadBean.getThreadAllocatedBytes(threadId)
+  val nanos = measureNanoTime(parse)
+  val allocatedMb = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / (1024 * 1024)
+  println("$count targets, $format (${inputSize / 1024} KB): ${nanos / 1_000_000} ms, $allocatedMb MB allocated")
+}
+
+private fun parseTextProto(text: String): TargetInfo {
+  val builder = TargetInfo.newBuilder()
+  TextFormat.Parser
+    .newBuilder()
+    .setAllowUnknownFields(true)
+    .build()
+    .merge(text, builder)
+  return builder.build()
+}
+
+private fun syntheticTargetInfo(index: Int): TargetInfo {
+  fun file(path: String) = FileLocation.newBuilder().setRelativePath(path).setIsSource(true)
+
+  return TargetInfo
+    .newBuilder()
+    .setId("@//package$index:target$index")
+    .setKind("java_library")
+    .addAllTags(listOf("manual", "no-remote"))
+    .addAllDependencies(
+      (1..5).map { Dependency.newBuilder().setId("@//package${index + it}:target${index + it}").build() },
+    ).addAllSources((0 until 10).map { file("package$index/Source$it.java").build() })
+    .setJvmTargetInfo(
+      JvmTargetInfo
+        .newBuilder()
+        .addJars(
+          JvmOutputs
+            .newBuilder()
+            .addBinaryJars(file("bazel-out/k8-fastbuild/bin/package$index/libtarget$index.jar"))
+            .addInterfaceJars(file("bazel-out/k8-fastbuild/bin/package$index/libtarget$index-hjar.jar"))
+            .addSourceJars(file("bazel-out/k8-fastbuild/bin/package$index/libtarget$index-src.jar")),
+        ).addAllJavacOpts(listOf("-source", "17", "-target", "17", "-Xlint:all"))
+        .addJdeps(file("bazel-out/k8-fastbuild/bin/package$index/libtarget$index.jdeps")),
+    ).build()
+}
+
+// mirrors Starlark `json.encode` of the aspect's struct: proto field names, enums as numbers
+private fun toAspectJson(message: Message): String {
+  val output = StringWriter()
+  JsonWriter(output).use { writeMessage(it, message) }
+  return output.toString()
+}
+
+private fun writeMessage(writer: JsonWriter, message: Message) {
+  writer.beginObject()
+  for ((field, value) in message.allFields) {
+    writer.name(field.name)
+    when {
+      field.isMapField -> {
+        writer.beginObject()
+        (value as List<*>).map { it as Message }.forEach { entry ->
+          val entryFields = entry.descriptorForType
+          writer.name(entry.getField(entryFields.findFieldByName("key")).toString())
+          writeValue(writer, entryFields.findFieldByName("value"), entry.getField(entryFields.findFieldByName("value")))
+        }
+        writer.endObject()
+      }
+      field.isRepeated -> {
+        writer.beginArray()
+        (value as List<*>).forEach { writeValue(writer, field, it!!) }
+        writer.endArray()
+      }
+      else -> writeValue(writer, field, value)
+    }
+  }
+  writer.endObject()
+}
+
+private fun writeValue(
+  writer: JsonWriter,
+  field: FieldDescriptor,
+  value: Any,
+) {
+  when (field.javaType) {
+    FieldDescriptor.JavaType.MESSAGE -> writeMessage(writer, value as Message)
+    FieldDescriptor.JavaType.BOOLEAN -> writer.value(value as Boolean)
+    FieldDescriptor.JavaType.ENUM -> writer.value((value as EnumValueDescriptor).number.toLong())
+    FieldDescriptor.JavaType.INT, FieldDescriptor.JavaType.LONG, FieldDescriptor.JavaType.FLOAT, FieldDescriptor.JavaType.DOUBLE ->
+      writer.value(value as Number)
+    else -> writer.value(value.toString())
+  }
+}
@@ -0,0 +1,92 @@
+package org.jetbrains.bsp.bazel.server.sync
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.junit.jupiter.api.Test
+import java.nio.file.Path
+import java.nio.file.Paths
+
+class TransitiveJarsIndexTest {
+  private fun label(name: String) = Label.parse("//:$name")
+
+  private fun jar(name: String): Path = Paths.get("/bazel-out/$name.jar")
+
+  private fun index(
+    jars: List<String>,
+    roots: List<String>,
+    ownJars: Map<String, List<String>>,
+    dependencies: Map<String, List<String>>,
+  ) = TransitiveJarsIndex(
+    jars = jars.map(::jar),
+    roots = roots.map(::label),
+    ownJars = { node -> ownJars[node.targetName].orEmpty().map(::jar) },
+    dependencies = { node -> dependencies[node.targetName].orEmpty().map(::label) },
+  )
+
+  @Test
+  fun `should contain jars of the node and of its transitive dependencies`() {
+    // given
+    // a -> b -> c, a -> d
+    val index =
+      index(
+        jars = listOf("a", "b", "c", "d", "other"),
+        roots = listOf("a"),
+        ownJars = mapOf("a" to listOf("a"), "b" to listOf("b"), "c" to listOf("c"), "d" to listOf("d")),
+        dependencies = mapOf("a" to listOf("b", "d"), "b" to listOf("c")),
+      )
+
+    // then
+    listOf("a", "b", "c", "d", "other").map { index.contains(label("a"), jar(it)) } shouldBe
+      listOf(true, true, true, true, false)
+    listOf("a", "b", "c", "d").map { index.contains(label("b"), jar(it)) } shouldBe listOf(false, true, true, false)
+  }
+
+  @Test
+  fun `should ignore jars which are not indexed`() {
+    // given
+    val index =
+      index(
+        jars = listOf("a"),
+        roots = listOf("a"),
+        ownJars = mapOf("a" to listOf("a", "not-indexed")),
+        dependencies = emptyMap(),
+      )
+
+    // then
+    index.contains(label("a"), jar("a")) shouldBe true
+    index.contains(label("a"), jar("not-indexed")) shouldBe false
+    index.contains(label("unknown"), jar("a")) shouldBe false
+  }
+
+  @Test
+  fun `should handle very long dependency chains`() {
+    // given
+    val length = 100_000
+    val index =
+      index(
+        jars = listOf("last"),
+        roots = listOf("0"),
+        ownJars = mapOf("${length - 1}" to listOf("last")),
+        dependencies = (0 until length - 1).associate { "$it" to listOf("${it + 1}") },
+      )
+
+    // then
+    index.contains(label("0"), jar("last")) shouldBe true
+  }
+
+  @Test
+  fun `should not loop on dependency cycles`() {
+    // given
+    // a -> b -> a
+    val index =
+      index(
+        jars = listOf("a", "b"),
+        roots = listOf("a"),
+        ownJars = mapOf("a" to listOf("a"), "b" to listOf("b")),
+        dependencies = mapOf("a" to listOf("b"), "b" to listOf("a")),
+      )
+
+    // then
+    index.contains(label("a"), jar("b")) shouldBe true
+  }
+}
@@ -0,0 +1,86 @@
+package org.jetbrains.bsp.bazel.server.sync.dependencygraph
+
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.Dependency
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import org.jetbrains.bsp.bazel.server.dependencygraph.DependencyGraph
+import org.jetbrains.bsp.bazel.server.model.Label
+import kotlin.system.measureNanoTime
+
+/**
+ * Measures [DependencyGraph] on the shapes used in [DependencyGraphTest], scaled up to many nodes.
+ *
+ * Run with `bazel run //server/server/src/test/kotlin/org/jetbrains/bsp/bazel/server/sync/dependencygraph:DependencyGraphBenchmark`,
+ * optionally passing the number of nodes as an argument (defaults to 100000).
+ */
+fun main(args: Array<String>) {
+  val nodes = args.firstOrNull()?.toInt() ?: 100_000
+  val shapes =
+    mapOf(
+      "chain" to ::chain,
+      "fan out" to ::fanOut,
+      "binary tree" to ::binaryTree,
+      "shared leaves" to ::sharedLeaves,
+    )
+  for ((name, shape) in shapes) {
+    val targets = shape(nodes).associateBy { Label.parse(it.id) }
+    val root = Label.parse(targetId(0))
+    // every tenth target is a root, like in a project importing a subset of its packages
+    val rootTargets = targets.keys.filterIndexed { index, _ -> index % 10 == 0 }.toSet()
+
+    val heapBefore = usedHeap()
+    lateinit var graph: DependencyGraph
+    val buildNanos = measureNanoTime { graph = DependencyGraph(rootTargets, targets) }
+    val heapMb = (usedHeap() - heapBefore) / (1024 * 1024)
+
+    val allTargetsNanos = measureNanoTime { graph.allTargetsAtDepth(-1, setOf(root)) }
+    val depth2Nanos = measureNanoTime { graph.allTargetsAtDepth(2, setOf(root)) }
+    val sampledTargets = targets.keys.filterIndexed { index, _ -> index % 100 == 0 }
+    val transitiveNanos = measureNanoTime { sampledTargets.forEach(graph::transitiveDependenciesWithoutRootTargets) }
+    val reverseNanos = measureNanoTime { graph.reverseTransitiveDependencies(setOf(Label.parse(targetId(nodes - 1)))) }
+
+    println(
+      "$name ($nodes nodes): build ${buildNanos.ms} ms, graph heap ~$heapMb MB, " +
+        "all targets ${allTargetsNanos.ms} ms, depth 2 ${depth2Nanos.ms} ms, " +
+        "transitive deps of ${sampledTargets.size} targets ${transitiveNanos.ms} ms, reverse deps ${reverseNanos.ms} ms",
+    )
+    check(graph.allTargetsAtDepth(-1, setOf(root)).isNotEmpty())
+  }
+}
+
+private val Long.ms: Long
+  get() = this / 1_000_000
+
+private fun usedHeap(): Long {
+  repeat(3) { System.gc() }
+  val runtime = Runtime.getRuntime()
+  return runtime.totalMemory() - runtime.freeMemory()
+}
+
+private fun targetId(index: Int) = "//target$index"
+
+private fun targetInfo(index: Int, dependencies: List<Int>): TargetInfo =
+  TargetInfo
+    .newBuilder()
+    .setId(targetId(index))
+    .addAllDependencies(dependencies.map { Dependency.newBuilder().setId(targetId(it)).build() })
+    .build()
+
+// A -> b -> c -> ... , the deepest possible graph
+private fun chain(nodes: Int): List<TargetInfo> = (0 until nodes).map { targetInfo(it, listOfNotNull((it + 1).takeIf { it < nodes })) }
+
+// A -> b, c, d, ...
+private fun fanOut(nodes: Int): List<TargetInfo> =
+  listOf(targetInfo(0, (1 until nodes).toList())) + (1 until nodes).map { targetInfo(it, emptyList()) }
+
+// every node depends on two children
+private fun binaryTree(nodes: Int): List<TargetInfo> =
+  (0 until nodes).map { index -> targetInfo(index, listOf(2 * index + 1, 2 * index + 2).filter { it < nodes }) }
+
+// layers of 100 nodes, every node depends on the whole next layer
+private fun sharedLeaves(nodes: Int): List<TargetInfo> {
+  val layerSize = 100
+  return (0 until nodes).map { index ->
+    val nextLayerStart = (index / layerSize + 1) * layerSize
+    targetInfo(index, (nextLayerStart until minOf(nextLayerStart + layerSize, nodes)).toList())
+  }
+}
@@ -584,6 +584,153 @@ class DependencyGraphTest {
     }
   }
 
+  @Nested
+  @DisplayName("DependencyGraph.reverseTransitiveDependencies")
+  inner class ReverseTransitiveDependenciesTest {
+    @Test
+    fun `should return only queried target for target without reverse dependencies`() {
+      // given
+      val a = targetInfo("//A", listOf("//b"))
+      val b = targetInfo("//b")
+      val dependencyGraph = DependencyGraph(setOf(Label.parse("//A")), toIdToTargetInfoMap(a, b))
+
+      // when
+      val dependents = dependencyGraph.reverseTransitiveDependencies(setOf(Label.parse("//A")))
+
+      // then
+      dependents shouldBe setOf(Label.parse("//A"))
+    }
+
+    @Test
+    fun `should return direct and transitive reverse dependencies`() {
+      // graph:
+      // '?' - queried target
+      // '+' - should be returned
+      // '-' - shouldn't be returned
+      // capital letter - root target
+      // ┌──────────┐
+      // │    A     │
+      // │    +     │
+      // └┬────────┬┘
+      // ┌▽──────┐┌▽┐
+      // │   b   ││c│
+      // │   +   ││-│
+      // └┬─────┬┘└─┘
+      // ┌▽───┐┌▽┐
+      // │ D  ││e│
+      // │ ?  ││-│
+      // └┬──┬┘└─┘
+      // ┌▽┐┌▽┐
+      // │f││g│
+      // │-││-│
+      // └─┘└─┘
+
+      // given
+      val a = targetInfo("//A", listOf("//b", "//c"))
+      val b = targetInfo("//b", listOf("//D", "//e"))
+      val c = targetInfo("//c", listOf())
+      val d = targetInfo("//D", listOf("//f", "//g"))
+      val e = targetInfo("//e", listOf())
+      val f = targetInfo("//f", listOf())
+      val g = targetInfo("//g", listOf())
+      val idToTargetInfo = toIdToTargetInfoMap(a, b, c, d, e, f, g)
+      val rootTargets = setOf(Label.parse("//A"), Label.parse("//D"))
+      val dependencyGraph = DependencyGraph(rootTargets, idToTargetInfo)
+
+      // when
+      val dependents = dependencyGraph.reverseTransitiveDependencies(setOf(Label.parse("//D")))
+
+      // then
+      dependents shouldBe setOf(Label.parse("//A"), Label.parse("//b"), Label.parse("//D"))
+    }
+  }
+
+  @Nested
+  @DisplayName("DependencyGraph.directDependencies")
+  inner class DirectDependenciesTest {
+    @Test
+    fun `should return empty list for not existing target`() {
+      // given
+      val dependencyGraph = DependencyGraph()
+
+      // when
+      val dependencies = dependencyGraph.directDependencies(Label.parse("//does/not/exist"))
+
+      // then
+      dependencies shouldBe emptyList()
+    }
+
+    @Test
+    fun `should return only direct dependencies including root targets`() {
+      // graph:
+      // '?' - queried target
+      // '+' - should be returned
+      // '-' - shouldn't be returned
+      // capital letter - root target
+      // ┌─────┐
+      // │  a  │
+      // │  ?  │
+      // └┬───┬┘
+      // ┌▽┐ ┌▽┐
+      // │B│ │c│
+      // │+│ │+│
+      // └┬┘ └┬┘
+      // ┌▽┐ ┌▽┐
+      // │d│ │e│
+      // │-│ │-│
+      // └─┘ └─┘
+
+      // given
+      val a = targetInfo("//a", listOf("//B", "//c"))
+      val b = targetInfo("//B", listOf("//d"))
+      val c = targetInfo("//c", listOf("//e"))
+      val d = targetInfo("//d")
+      val e = targetInfo("//e")
+      val dependencyGraph = DependencyGraph(setOf(Label.parse("//B")), toIdToTargetInfoMap(a, b, c, d, e))
+
+      // when
+      val dependencies = dependencyGraph.directDependencies(Label.parse("//a"))
+      val dependenciesWithoutRootTargets = dependencyGraph.directDependenciesWithoutRootTargets(Label.parse("//a"))
+
+      // then
+      dependencies.toSet() shouldBe setOf(Label.parse("//B"), Label.parse("//c"))
+      dependenciesWithoutRootTargets shouldBe listOf(Label.parse("//c"))
+    }
+  }
+
+  @Nested
+  @DisplayName("DependencyGraph.targetInfo")
+  inner class TargetInfoTest {
+    @Test
+    fun `should return target info of known target`() {
+      // given
+      val a = targetInfo("//a", listOf("//b"))
+      val b = targetInfo("//b")
+      val dependencyGraph = DependencyGraph(setOf(Label.parse("//a")), toIdToTargetInfoMap(a, b))
+
+      // when
+      val targetInfo = dependencyGraph.targetInfo(Label.parse("//b"))
+
+      // then
+      targetInfo shouldBe b
+    }
+
+    @Test
+    fun `should return null for not existing target`() {
+      // given
+      val a = targetInfo("//a", listOf("//b"))
+      val dependencyGraph = DependencyGraph(setOf(Label.parse("//a")), toIdToTargetInfoMap(a))
+
+      // when
+      val knownDependency = dependencyGraph.targetInfo(Label.parse("//b"))
+      val unknownTarget = dependencyGraph.targetInfo(Label.parse("//does/not/exist"))
+
+      // then
+      knownDependency shouldBe null
+      unknownTarget shouldBe null
+    }
+  }
+
   private fun targetInfo(id: String, dependenciesIds: List<String> = listOf()): TargetInfo {
     val dependencies = dependenciesIds.map(::dependency)
     return TargetInfo
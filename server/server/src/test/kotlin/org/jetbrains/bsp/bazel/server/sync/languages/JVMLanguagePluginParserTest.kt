@@ -177,4 +177,62 @@ class JVMLanguagePluginParserTest {
     // then
     calculatedSourceRoot shouldBe SourceRootAndData(sourceRoot, EnhancedSourceItemData(packageName))
   }
+
+  @Test
+  fun `should skip comments and file annotations before the package`() {
+    // given
+    val fileContent =
+      """
+            |/*
+            | * Copyright (c) - a license header mentioning
+            | * package com.example.license
+            | */
+            |@file:JvmName("FileKt")
+            |
+            |package dir1.dir2.dir3
+            |
+            |fun test() {}
+            |
+      """.trimMargin()
+
+    val sourceRoot = tempRoot.resolve("path/to/source/")
+    val sourceDir = Files.createDirectories(sourceRoot.resolve("dir1/dir2/dir3/"))
+
+    val sourceFile = Files.createFile(sourceDir.resolve("File.kt"))
+    sourceFile.writeText(fileContent)
+
+    // when
+    val calculatedSourceRoot = JVMLanguagePluginParser.calculateJVMSourceRootAndAdditionalData(sourceFile)
+
+    // then
+    calculatedSourceRoot shouldBe SourceRootAndData(sourceRoot, EnhancedSourceItemData("dir1.dir2.dir3"))
+  }
+
+  @Test
+  fun `should join Scala package clauses preceding the first import`() {
+    // given
+    val fileContent =
+      """
+            |package dir1.dir2
+            |package dir3
+            |
+            |import dir1.other
+            |
+            |package object test {
+            |}
+            |
+      """.trimMargin()
+
+    val sourceRoot = tempRoot.resolve("path/to/source/")
+    val sourceDir = Files.createDirectories(sourceRoot.resolve("dir1/dir2/dir3/"))
+
+    val sourceFile = Files.createFile(sourceDir.resolve("File.scala"))
+    sourceFile.writeText(fileContent)
+
+    // when
+    val calculatedSourceRoot = JVMLanguagePluginParser.calculateJVMSourceRootAndAdditionalData(sourceFile, true)
+
+    // then
+    calculatedSourceRoot shouldBe SourceRootAndData(sourceRoot, EnhancedSourceItemData("dir1.dir2.dir3"))
+  }
 }
@@ -0,0 +1,88 @@
+package org.jetbrains.bsp.bazel.server.sync.languages.java
+
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.io.path.createDirectories
+import kotlin.io.path.writeText
+
+class JdkVersionResolverTest {
+  @TempDir
+  lateinit var tempDir: Path
+
+  private val cachePath by lazy { tempDir.resolve(JdkVersionResolver.FILE_NAME) }
+
+  @Test
+  fun `should read the version from the release file`() {
+    // given
+    val javaHome = writeJavaHome("jdk", "17.0.2")
+
+    // when
+    val version = JdkVersionResolver().resolve(javaHome)
+
+    // then
+    version shouldBe 17
+  }
+
+  @Test
+  fun `should reuse the version stored by the previous sync until the release file changes`() {
+    // given
+    val javaHome = writeJavaHome("jdk", "17.0.2")
+    val lastModifiedTime = Files.getLastModifiedTime(javaHome.resolve("release"))
+    JdkVersionResolver(cachePath).apply {
+      startSync()
+      resolve(javaHome)
+      store()
+    }
+    // same size and modification time, so it is not read again
+    writeJavaHome("jdk", "11.0.2")
+    Files.setLastModifiedTime(javaHome.resolve("release"), lastModifiedTime)
+
+    // when
+    val cachedVersion = JdkVersionResolver(cachePath).resolve(javaHome)
+    Files.setLastModifiedTime(javaHome.resolve("release"), FileTime.fromMillis(lastModifiedTime.toMillis() + 1000))
+    val changedVersion = JdkVersionResolver(cachePath).resolve(javaHome)
+
+    // then
+    cachedVersion shouldBe 17
+    changedVersion shouldBe 11
+  }
+
+  @Test
+  fun `should check a java home again in the next sync`() {
+    // given
+    val javaHome = writeJavaHome("jdk", "17.0.2")
+    val resolver = JdkVersionResolver(cachePath)
+    resolver.startSync()
+    resolver.resolve(javaHome)
+    resolver.store()
+
+    // when
+    writeJavaHome("jdk", "21")
+    val versionInTheSameSync = resolver.resolve(javaHome)
+    resolver.startSync()
+    val versionInTheNextSync = resolver.resolve(javaHome)
+
+    // then
+    versionInTheSameSync shouldBe 17
+    versionInTheNextSync shouldBe 21
+  }
+
+  @Test
+  fun `should return null for a java home without a version`() {
+    // when
+    val version = JdkVersionResolver(cachePath).resolve(tempDir.resolve("missing"))
+
+    // then
+    version shouldBe null
+  }
+
+  private fun writeJavaHome(name: String, version: String): Path {
+    val javaHome = tempDir.resolve(name).createDirectories()
+    javaHome.resolve("release").writeText("IMPLEMENTOR=\"Test\"\nJAVA_VERSION=\"$version\"\n")
+    return javaHome
+  }
+}
@@ -0,0 +1,136 @@
+package org.jetbrains.bsp.bazel.server.sync.languages.python
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.Dependency
+import org.jetbrains.bsp.bazel.info.BspTargetInfo.TargetInfo
+import org.jetbrains.bsp.bazel.server.dependencygraph.DependencyGraph
+import org.jetbrains.bsp.bazel.server.model.Label
+import org.junit.jupiter.api.Test
+import java.net.URI
+
+// graphs generated using: https://arthursonzogni.com/Diagon/#GraphDAG
+class ExternalSourcesIndexTest {
+  @Test
+  fun `should return external sources of transitive dependencies of a diamond once`() {
+    // graph:
+    // capital letter - root target
+    // (x) - external source root of a target
+    // ┌─────────┐
+    // │    A    │
+    // └┬───────┬┘
+    // ┌▽─────┐┌▽─────┐
+    // │b (p1)││c (p2)│
+    // └┬─────┘└┬─────┘
+    // ┌▽───────▽┐
+    // │ d (p3)  │
+    // └┬────────┘
+    // ┌▽─────┐
+    // │e (p4)│
+    // └──────┘
+
+    // given
+    val a = targetInfo("//A", listOf("//b", "//c"))
+    val b = targetInfo("//b", listOf("//d"))
+    val c = targetInfo("//c", listOf("//d"))
+    val d = targetInfo("//d", listOf("//e"))
+    val e = targetInfo("//e")
+    val roots = mapOf("//b" to setOf("p1"), "//c" to setOf("p2"), "//d" to setOf("p3"), "//e" to setOf("p4"))
+    val dependencyGraph = DependencyGraph(setOf(Label.parse("//A")), toIdToTargetInfoMap(a, b, c, d, e))
+    val index = ExternalSourcesIndex(dependencyGraph) { ownRoots(roots, it) }
+    val targets = listOf("//A", "//b", "//c", "//d", "//e")
+
+    // when
+    val sources = targets.associateWith { index.dependencySources(Label.parse(it), dependencyGraph) }
+
+    // then
+    sources shouldBe targets.associateWith { expectedSources(dependencyGraph, roots, it) }
+    sources["//A"] shouldBe uris("p1", "p2", "p3", "p4")
+    sources["//b"] shouldBe uris("p3", "p4")
+    sources["//e"] shouldBe emptySet()
+  }
+
+  @Test
+  fun `should skip direct root target dependencies but not transitive ones`() {
+    // graph:
+    // capital letter - root target
+    // (x) - external source root of a target
+    // ┌─────────────┐
+    // │      A      │
+    // └┬───────────┬┘
+    // ┌▽─────┐ ┌───▽──┐
+    // │B (p1)│ │c (p2)│
+    // └┬─────┘ └┬─────┘
+    // ┌▽─────┐ ┌▽─────┐
+    // │d (p3)│ │E (p4)│
+    // └──────┘ └┬─────┘
+    //          ┌▽─────┐
+    //          │f (p5)│
+    //          └──────┘
+
+    // given
+    val a = targetInfo("//A", listOf("//B", "//c"))
+    val b = targetInfo("//B", listOf("//d"))
+    val c = targetInfo("//c", listOf("//E"))
+    val d = targetInfo("//d")
+    val e = targetInfo("//E", listOf("//f"))
+    val f = targetInfo("//f")
+    val roots =
+      mapOf("//B" to setOf("p1"), "//c" to setOf("p2"), "//d" to setOf("p3"), "//E" to setOf("p4"), "//f" to setOf("p5"))
+    val rootTargets = setOf(Label.parse("//A"), Label.parse("//B"), Label.parse("//E"))
+    val dependencyGraph = DependencyGraph(rootTargets, toIdToTargetInfoMap(a, b, c, d, e, f))
+    val index = ExternalSourcesIndex(dependencyGraph) { ownRoots(roots, it) }
+    val targets = listOf("//A", "//B", "//c", "//d", "//E", "//f")
+
+    // when
+    val sources = targets.associateWith { index.dependencySources(Label.parse(it), dependencyGraph) }
+
+    // then
+    sources shouldBe targets.associateWith { expectedSources(dependencyGraph, roots, it) }
+    sources["//A"] shouldBe uris("p2", "p4", "p5")
+    sources["//c"] shouldBe emptySet()
+    sources["//E"] shouldBe uris("p5")
+  }
+
+  @Test
+  fun `should return no external sources for not existing target`() {
+    // given
+    val dependencyGraph = DependencyGraph()
+    val index = ExternalSourcesIndex(dependencyGraph) { emptySet() }
+
+    // when
+    val sources = index.dependencySources(Label.parse("//does/not/exist"), dependencyGraph)
+
+    // then
+    sources shouldBe emptySet()
+  }
+
+  // the computation replaced by the index
+  private fun expectedSources(
+    dependencyGraph: DependencyGraph,
+    roots: Map<String, Set<String>>,
+    target: String,
+  ): Set<URI> =
+    dependencyGraph
+      .transitiveDependenciesWithoutRootTargets(Label.parse(target))
+      .flatMap { ownRoots(roots, it) }
+      .toSet()
+
+  private fun ownRoots(roots: Map<String, Set<String>>, targetInfo: TargetInfo): Set<URI> =
+    uris(*roots[targetInfo.id].orEmpty().toTypedArray())
+
+  private fun uris(vararg names: String): Set<URI> = names.map { URI.create("file:///external/$it/site-packages") }.toSet()
+
+  private fun targetInfo(id: String, dependenciesIds: List<String> = listOf()): TargetInfo {
+    val dependencies = dependenciesIds.map(::dependency)
+    return TargetInfo
+      .newBuilder()
+      .setId(id)
+      .addAllDependencies(dependencies)
+      .build()
+  }
+
+  private fun dependency(id: String): Dependency = Dependency.newBuilder().setId(id).build()
+
+  private fun toIdToTargetInfoMap(vararg targetIds: TargetInfo): Map<Label, TargetInfo> =
+    targetIds.associateBy { targetId -> Label.parse(targetId.id) }
+}
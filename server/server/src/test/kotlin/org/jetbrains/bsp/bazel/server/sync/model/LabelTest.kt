@@ -128,4 +128,31 @@ class LabelTest {
     // then
     targetName shouldBe ""
   }
+
+  @Test
+  fun `should return the same instance for equivalent labels`() {
+    // given
+    val label = Label.parse("@//path/to/target:targetName")
+
+    // when
+    val labelWithoutAt = Label.parse("//path/to/target:targetName")
+    val labelWithDoubleAt = Label.parse("@@//path/to/target:targetName")
+
+    // then
+    (labelWithoutAt === label) shouldBe true
+    (labelWithDoubleAt === label) shouldBe true
+  }
+
+  @Test
+  fun `should return empty target path for label in the root package`() {
+    // given
+    val label = Label.parse("@//:targetName")
+
+    // when
+    val targetPath = label.targetPath
+
+    // then
+    targetPath shouldBe ""
+    label.targetName shouldBe "targetName"
+  }
 }